@@ -0,0 +1,628 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.event.ChangeListener;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.MethodNotSupportedException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.conn.EofSensorWatcher;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.nerde.exception.NoHostException;
+import com.salesforce.nerde.service.ResourceDiscoveryService.HttpMethod;
+
+/**
+ * Dispatches HTTP requests to the hosts picked by a discovery service and owns the pooled HTTP client shared by them.
+ * Subclasses decide where hosts come from and recreate the client when the host set changes.
+ */
+public abstract class AbstractDiscoveryService implements ChangeListener{
+	protected static int DEFAULT_CONNECTION_TIMEOUT=10000;
+	protected static int DEFAULT_SOCKET_TIMEOUT=300000;
+	protected static int STANDBY_CONNECTIONS_PER_ROUTE=2;
+	private static long DISPATCH_POLL_MILLIS=10;
+	protected int connectionCount=200; 
+	protected volatile CloseableHttpClient httpClient;
+	private volatile int requestLogInterval=0;
+	private volatile AdmissionController admissionController;
+	private final AtomicLong requestCount=new AtomicLong();
+	protected final Logger _logger=LoggerFactory.getLogger(getClass());
+	//Outlives the HTTP clients so that recreating the connection pool does not resolve the hosts again
+	protected final CachingDnsResolver dnsResolver=new CachingDnsResolver();
+	private ExecutorService dispatchExecutor;
+	private final AtomicLong httpClientRecreations=new AtomicLong();
+	private final AtomicLong connectionsOpened=new AtomicLong();
+
+	protected AbstractDiscoveryService(int connCount){
+		if(connCount>0){
+			connectionCount=connCount;
+		}else{
+			_logger.warn("Connection count must be atleast one. so setting connection count to default value {}",connCount); 
+		}
+	}
+
+	public abstract Host getHost();
+
+	/* Next host to send a request to, or null if none is available; unlike getHost() this never waits for one. */
+	protected abstract Host pollHost();
+
+	public abstract List<Host> getAllHosts();
+
+	public abstract void dispose();
+
+	/* Stops the background threads of the resolver and of parallel dispatch; called by dispose. */
+	protected synchronized void shutdownExecutors(){
+		dnsResolver.shutdown();
+		if(dispatchExecutor!=null){
+			dispatchExecutor.shutdownNow();
+			dispatchExecutor=null;
+		}
+	}
+
+	/* Execute a request given by type requestType. */
+	public HttpResponse executeHttpRequest(HttpMethod requestType, String path, StringEntity entity) throws Exception {
+		return executeHttpRequest(requestType, path, entity, RequestPriority.NORMAL);
+	}
+
+	/*
+	 * Execute a request given by type requestType. When an admission controller is set, the request may be delayed
+	 * or rejected with an OverloadException according to its priority.
+	 */
+	public HttpResponse executeHttpRequest(HttpMethod requestType, String path, StringEntity entity, RequestPriority priority) throws Exception {
+		Host host = getHost();
+		URI uri = host.getURI(path);
+		logRequest(uri);
+		if (entity != null) {
+			entity.setContentType("application/json");
+		}
+		return execute(host, createRequest(requestType, uri, entity), priority);
+	}
+
+	/*
+	 * Sends the request to every discovered host in parallel. Responses are read fully before they are returned,
+	 * so no pooled connection is held while the other hosts answer.
+	 */
+	public DispatchResult executeOnAll(HttpMethod requestType, String path, StringEntity entity, DispatchOptions options) {
+		if (entity != null) {
+			entity.setContentType("application/json");
+		}
+		List<Host> hosts = new ArrayList<Host>(getAllHosts());
+		List<DispatchTask> tasks = new ArrayList<DispatchTask>();
+		BatchRequest request = new BatchRequest(requestType, path, entity);
+		for (Host host : hosts) {
+			tasks.add(new DispatchTask(tasks.size(), host, request, options.getPriority()));
+		}
+		return dispatchAll(tasks, options);
+	}
+
+	/*
+	 * Sends independent requests in parallel, each to the next host picked by the scheduler. Outcomes are in the
+	 * order of the requests; a request is failed with a NoHostException when no host is available.
+	 */
+	public DispatchResult executeBatch(List<BatchRequest> requests, DispatchOptions options) {
+		List<DispatchTask> tasks = new ArrayList<DispatchTask>();
+		for (BatchRequest request : requests) {
+			if (request.getEntity() != null) {
+				request.getEntity().setContentType("application/json");
+			}
+			tasks.add(new DispatchTask(tasks.size(), null, request, options.getPriority()));
+		}
+		return dispatchAll(tasks, options);
+	}
+
+	/*
+	 * Runs at most maxConcurrency tasks at a time. A task that misses its deadline is aborted and reported as timed
+	 * out without waiting for it. Deadlines count from the moment a task starts on a dispatch thread, so time spent
+	 * queued behind other dispatches does not count. Once the required number of successes is reached, the running
+	 * tasks are aborted and the ones not started yet are reported as cancelled.
+	 */
+	private DispatchResult dispatchAll(List<DispatchTask> tasks, DispatchOptions options) {
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getTimeoutMillis());
+		int requiredSuccesses = options.getRequiredSuccesses();
+		CompletionService<DispatchResult.Outcome> completion = new ExecutorCompletionService<DispatchResult.Outcome>(getDispatchExecutor());
+		Map<Future<DispatchResult.Outcome>, DispatchTask> running = new HashMap<Future<DispatchResult.Outcome>, DispatchTask>();
+		DispatchResult.Outcome[] outcomes = new DispatchResult.Outcome[tasks.size()];
+		int next = 0;
+		int successes = 0;
+		boolean enough = false;
+		try {
+			while (!enough && (next < tasks.size() || !running.isEmpty())) {
+				while (running.size() < options.getMaxConcurrency() && next < tasks.size()) {
+					DispatchTask task = tasks.get(next++);
+					task.timeoutNanos = timeoutNanos;
+					running.put(completion.submit(task), task);
+				}
+				long earliest = Long.MAX_VALUE;
+				for (DispatchTask task : running.values()) {
+					//A queued task has no deadline yet, check again shortly to pick it up once it starts
+					earliest = Math.min(earliest, task.started ? task.remainingNanos() : TimeUnit.MILLISECONDS.toNanos(DISPATCH_POLL_MILLIS));
+				}
+				Future<DispatchResult.Outcome> future = completion.poll(Math.max(earliest, 0), TimeUnit.NANOSECONDS);
+				if (future == null) {
+					Iterator<DispatchTask> iterator = running.values().iterator();
+					while (iterator.hasNext()) {
+						DispatchTask task = iterator.next();
+						if (task.started && task.remainingNanos() <= 0) {
+							task.abort();
+							iterator.remove();
+							outcomes[task.index] = task.outcome(new TimeoutException("No response within " + options.getTimeoutMillis() + " ms"));
+						}
+					}
+					continue;
+				}
+				DispatchTask task = running.remove(future);
+				if (task == null) {
+					//Already reported as timed out
+					continue;
+				}
+				outcomes[task.index] = future.get();
+				if (outcomes[task.index].isSuccess() && requiredSuccesses > 0 && ++successes >= requiredSuccesses) {
+					enough = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			//DispatchTask reports failures in its outcome, so this is not expected
+			_logger.error(e.getMessage());
+		}
+		for (DispatchTask task : running.values()) {
+			task.abort();
+		}
+		for (DispatchTask task : tasks) {
+			if (outcomes[task.index] == null) {
+				outcomes[task.index] = task.outcome(new CancellationException("Dispatch finished before this request completed"));
+			}
+		}
+		return new DispatchResult(Arrays.asList(outcomes));
+	}
+
+	private synchronized ExecutorService getDispatchExecutor() {
+		if (dispatchExecutor == null) {
+			//More threads than pooled connections would only wait for a connection
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(connectionCount, connectionCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "nerde-dispatch-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			dispatchExecutor = executor;
+		}
+		return dispatchExecutor;
+	}
+
+	private HttpResponse execute(Host host, HttpRequestBase request, RequestPriority priority) throws IOException {
+		AdmissionController controller = admissionController;
+		if (controller == null) {
+			return httpClient.execute(host.getHttpHost(), request);
+		}
+		controller.acquire(priority);
+		AdmissionTicket ticket = new AdmissionTicket(controller, request);
+		try {
+			HttpResponse httpResponse = httpClient.execute(host.getHttpHost(), request);
+			boolean failed = httpResponse.getStatusLine().getStatusCode() >= 500;
+			HttpEntity entity = httpResponse.getEntity();
+			if (entity == null) {
+				ticket.release(failed);
+			} else {
+				//The pooled connection is held until the body is read, so is the admission slot
+				httpResponse.setEntity(new AdmissionReleasingEntity(entity, ticket, failed));
+			}
+			return httpResponse;
+		} catch (IOException e) {
+			ticket.release(true);
+			throw e;
+		} catch (RuntimeException e) {
+			ticket.release(true);
+			throw e;
+		}
+	}
+
+	/* Releases the admission slot of one request exactly once. */
+	private static final class AdmissionTicket {
+		private final AdmissionController controller;
+		private final HttpRequestBase request;
+		private final long start = System.nanoTime();
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		AdmissionTicket(AdmissionController controller, HttpRequestBase request) {
+			this.controller = controller;
+			this.request = request;
+		}
+
+		void release(boolean failed) {
+			if (!released.compareAndSet(false, true)) {
+				return;
+			}
+			//A request aborted by parallel dispatch says nothing about the health of the host
+			if (request.isAborted()) {
+				controller.cancel();
+			} else {
+				controller.release(System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	/* Response entity that releases the admission slot once its content is fully read, closed or aborted. */
+	private static final class AdmissionReleasingEntity extends HttpEntityWrapper {
+		private final AdmissionTicket ticket;
+		private final boolean failed;
+
+		AdmissionReleasingEntity(HttpEntity entity, AdmissionTicket ticket, boolean failed) {
+			super(entity);
+			this.ticket = ticket;
+			this.failed = failed;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new EofSensorInputStream(wrappedEntity.getContent(), new EofSensorWatcher() {
+				public boolean eofDetected(InputStream wrapped) {
+					ticket.release(failed);
+					return true;
+				}
+				public boolean streamClosed(InputStream wrapped) {
+					ticket.release(failed);
+					return true;
+				}
+				public boolean streamAbort(InputStream wrapped) {
+					ticket.release(true);
+					return true;
+				}
+			});
+		}
+
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			boolean completed = false;
+			try {
+				wrappedEntity.writeTo(outstream);
+				completed = true;
+			} finally {
+				ticket.release(failed || !completed);
+			}
+		}
+
+		@Override
+		@Deprecated
+		public void consumeContent() throws IOException {
+			try {
+				wrappedEntity.consumeContent();
+			} finally {
+				ticket.release(failed);
+			}
+		}
+	}
+
+	private HttpRequestBase createRequest(HttpMethod requestType, URI uri, StringEntity entity) throws Exception {
+		try {
+			switch (requestType) {
+			case POST:
+
+				HttpPost post = new HttpPost(uri);
+
+				post.setEntity(entity);
+				return post;
+			case GET:
+
+				return new HttpGet(uri);
+			case DELETE:
+
+				return new HttpDelete(uri);
+			case PUT:
+
+				HttpPut httpput = new HttpPut(uri);
+
+				httpput.setEntity(entity);
+				return httpput;
+			default:
+				throw new MethodNotSupportedException(requestType.toString());
+			}
+		} catch (MethodNotSupportedException ex) {
+			throw new Exception(ex);
+		}
+	}
+
+	/* One request of executeOnAll or executeBatch; the host is picked when the task starts if none is given. */
+	private class DispatchTask implements Callable<DispatchResult.Outcome> {
+		final int index;
+		final BatchRequest request;
+		final RequestPriority priority;
+		volatile Host host;
+		volatile HttpRequestBase httpRequest;
+		volatile boolean aborted;
+		long timeoutNanos;
+		volatile long startNanos;
+		volatile boolean started;
+
+		DispatchTask(int index, Host host, BatchRequest request, RequestPriority priority) {
+			this.index = index;
+			this.host = host;
+			this.request = request;
+			this.priority = priority;
+		}
+
+		public DispatchResult.Outcome call() {
+			startNanos = System.nanoTime();
+			started = true;
+			try {
+				if (aborted) {
+					return outcome(new CancellationException("Dispatch finished before this request started"));
+				}
+				if (host == null) {
+					host = pollHost();
+					if (host == null) {
+						throw new NoHostException("No host is available");
+					}
+				}
+				URI uri = host.getURI(request.getPath());
+				logRequest(uri);
+				httpRequest = createRequest(request.getMethod(), uri, request.getEntity());
+				if (aborted) {
+					httpRequest.abort();
+				}
+				HttpResponse httpResponse = execute(host, httpRequest, priority);
+				HttpEntity entity = httpResponse.getEntity();
+				if (entity != null) {
+					httpResponse.setEntity(new BufferedHttpEntity(entity));
+					EntityUtils.consume(entity);
+				}
+				return new DispatchResult.Outcome(index, host, request, httpResponse, null, latencyNanos());
+			} catch (Exception e) {
+				return outcome(e);
+			}
+		}
+
+		void abort() {
+			aborted = true;
+			HttpRequestBase current = httpRequest;
+			if (current != null) {
+				current.abort();
+			}
+		}
+
+		DispatchResult.Outcome outcome(Exception failure) {
+			return new DispatchResult.Outcome(index, host, request, null, failure, latencyNanos());
+		}
+
+		long remainingNanos() {
+			return startNanos + timeoutNanos - System.nanoTime();
+		}
+
+		/* Time since the task started, so waiting for a dispatch thread is not counted; 0 if it never started. */
+		long latencyNanos() {
+			return started ? System.nanoTime() - startNanos : 0;
+		}
+	}
+
+	/*
+	 * Logs one in every requestLogInterval requests at INFO, otherwise only at DEBUG.
+	 */
+	private void logRequest(URI uri){
+		if(requestLogInterval>0 && requestCount.incrementAndGet() % requestLogInterval==0){
+			_logger.info("Invoking URL: {}", uri);
+		}else if(_logger.isDebugEnabled()){
+			_logger.debug("Invoking URL: {}", uri);
+		}
+	}
+
+	/* Enables client-side admission control; null, the default, admits every request. */
+	public void setAdmissionController(AdmissionController admissionController){
+		this.admissionController=admissionController;
+	}
+
+	public AdmissionController getAdmissionController(){
+		return admissionController;
+	}
+
+	/* Logs every n-th request URL at INFO; 0, the default, disables it. */
+	public void setRequestLogInterval(int requestLogInterval){
+		this.requestLogInterval=requestLogInterval;
+	}
+
+	protected CloseableHttpClient createHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts)  {
+		return createHttpClient(connCount, connTimeout, socketTimeout, hosts, hosts);
+	}
+
+	/*
+	 * Splits connCount over the routes of the active hosts. The other hosts only get STANDBY_CONNECTIONS_PER_ROUTE
+	 * connections each, on top of connCount, so that standby hosts do not take connections from the active ones.
+	 */
+	protected CloseableHttpClient createHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts, List<Host> activeHosts)  {
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", new CountingSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+				.register("https", new CountingLayeredSocketFactory(SSLConnectionSocketFactory.getSocketFactory())).build();
+		PoolingHttpClientConnectionManager connMgr = new PoolingHttpClientConnectionManager(socketFactoryRegistry, dnsResolver);
+		Set<Host> active = new HashSet<Host>(activeHosts);
+		connMgr.setMaxTotal(connCount + STANDBY_CONNECTIONS_PER_ROUTE * (hosts.size() - active.size()));
+
+		for(Host host : hosts) {
+			try{
+				HttpHost httpHost = host.getHttpHost();
+				if(httpHost.getPort() == -1){
+					_logger.error("Invalid port for end point: {} so skipping this end point..", host.getURL());
+					continue;
+				}
+				connMgr.setMaxPerRoute(new HttpRoute(httpHost), active.contains(host) ? connCount / active.size() : STANDBY_CONNECTIONS_PER_ROUTE);
+			}catch(IllegalArgumentException e){
+				_logger.warn("The host {} is invalid so ignoring..", host.getURL()); 
+			}
+		}
+
+		RequestConfig reqConfig = RequestConfig.custom().setConnectionRequestTimeout(connTimeout).setConnectTimeout(connTimeout).setSocketTimeout(
+				socketTimeout).build();
+
+		return HttpClients.custom().setConnectionManager(connMgr).setDefaultRequestConfig(reqConfig).build();
+	}
+
+	public CachingDnsResolver getDnsResolver(){
+		return dnsResolver;
+	}
+
+	public CloseableHttpClient getHttpClient(){
+		return httpClient;
+	}
+
+	/* Number of times the HTTP client and its connection pool were replaced after a host set change. */
+	public long getHttpClientRecreationCount(){
+		return httpClientRecreations.get();
+	}
+
+	/* Number of TCP connections opened by the connection pools of this service. */
+	public long getConnectionsOpenedCount(){
+		return connectionsOpened.get();
+	}
+
+	/*
+	 * Resolves the names of the given hosts so the connection pool does not look them up on the request path.
+	 * This may wait up to the prefetch timeout of the resolver, so it must not be called while holding a lock.
+	 */
+	protected void prefetchHosts(List<Host> hosts) {
+		List<String> hostNames = new ArrayList<String>();
+		for(Host host : hosts) {
+			try{
+				hostNames.add(host.getHttpHost().getHostName());
+			}catch(IllegalArgumentException e){
+				_logger.warn("The host {} is invalid so ignoring..", host.getURL()); 
+			}
+		}
+		dnsResolver.prefetch(hostNames);
+	}
+
+	/* Publishes a client for the given hosts and only then closes the previous one. */
+	protected void recreateHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts) {
+		recreateHttpClient(connCount, connTimeout, socketTimeout, hosts, hosts);
+	}
+
+	protected void recreateHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts, List<Host> activeHosts) {
+		httpClientRecreations.incrementAndGet();
+		CloseableHttpClient previous=httpClient;
+		httpClient=createHttpClient(connCount, connTimeout, socketTimeout, hosts, activeHosts);
+		if(previous != null){
+			try {
+				previous.close();
+			} catch (IOException e) {
+				_logger.warn(e.getMessage()); 
+			}
+		}
+	}
+
+	/* Counts every connection the pool opens, whatever host or address it goes to. */
+	private class CountingSocketFactory implements ConnectionSocketFactory {
+		private final ConnectionSocketFactory delegate;
+
+		CountingSocketFactory(ConnectionSocketFactory delegate){
+			this.delegate=delegate;
+		}
+
+		public Socket createSocket(HttpContext context) throws IOException {
+			return delegate.createSocket(context);
+		}
+
+		public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+				InetSocketAddress localAddress, HttpContext context) throws IOException {
+			Socket connected=delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+			connectionsOpened.incrementAndGet();
+			return connected;
+		}
+	}
+
+	private class CountingLayeredSocketFactory extends CountingSocketFactory implements LayeredConnectionSocketFactory {
+		private final LayeredConnectionSocketFactory delegate;
+
+		CountingLayeredSocketFactory(LayeredConnectionSocketFactory delegate){
+			super(delegate);
+			this.delegate=delegate;
+		}
+
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+			return delegate.createLayeredSocket(socket, target, port, context);
+		}
+	}
+}
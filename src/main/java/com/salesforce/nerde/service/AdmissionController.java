@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.nerde.exception.OverloadException;
+
+/**
+ * Client-side admission control for the requests dispatched by a discovery service. The load on the discovered
+ * hosts is expressed as a pressure, the highest of in-flight requests over maxInFlight, the moving average of
+ * latency over the latency target and the moving average of the error rate over the error rate threshold.
+ * A request is admitted while the pressure is below the limit of its {@link RequestPriority}; otherwise it waits
+ * up to the maximum delay of its priority and is then rejected with an {@link OverloadException}.
+ * The moving averages decay while no request completes, so a fleet that stopped receiving traffic is not
+ * considered overloaded forever.
+ */
+public class AdmissionController {
+	private static double EWMA_WEIGHT=0.1;
+	private static long POLL_INTERVAL_MILLIS=10;
+	private final Logger _logger=LoggerFactory.getLogger(AdmissionController.class);
+
+	private final int maxInFlight;
+	private volatile long latencyTargetNanos=TimeUnit.SECONDS.toNanos(1);
+	private volatile double errorRateThreshold=0.5;
+	private volatile long decayNanos=TimeUnit.SECONDS.toNanos(5);
+	private final double[] pressureLimits=new double[RequestPriority.values().length];
+	private final long[] maxDelayNanos=new long[RequestPriority.values().length];
+
+	private final AtomicInteger inFlight=new AtomicInteger();
+	private final AtomicReference<Averages> averages=new AtomicReference<Averages>(new Averages(0, 0, System.nanoTime()));
+	private final AtomicInteger waiting=new AtomicInteger();
+	private final Object monitor=new Object();
+
+	private final AtomicLongArray admitted=new AtomicLongArray(RequestPriority.values().length);
+	private final AtomicLongArray delayed=new AtomicLongArray(RequestPriority.values().length);
+	private final AtomicLongArray rejected=new AtomicLongArray(RequestPriority.values().length);
+
+	public AdmissionController(int maxInFlight){
+		if(maxInFlight<=0){
+			throw new IllegalArgumentException("maxInFlight must be at least one");
+		}
+		this.maxInFlight=maxInFlight;
+		setPressureLimit(RequestPriority.CRITICAL, Double.POSITIVE_INFINITY);
+		setPressureLimit(RequestPriority.NORMAL, 1.0);
+		setPressureLimit(RequestPriority.BATCH, 0.7);
+		setMaxDelay(RequestPriority.BATCH, 100, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Admits a request of the given priority, waiting up to its maximum delay for the pressure to drop.
+	 * Every successful call must be followed by exactly one call to release.
+	 */
+	public void acquire(RequestPriority priority){
+		int index=priority.ordinal();
+		double limit=pressureLimits[index];
+		if(tryReserve(limit)){
+			admitted.incrementAndGet(index);
+			return;
+		}
+		long deadline=System.nanoTime() + maxDelayNanos[index];
+		if(maxDelayNanos[index]>0){
+			delayed.incrementAndGet(index);
+			waiting.incrementAndGet();
+			try{
+				long remaining;
+				while((remaining=deadline - System.nanoTime())>0){
+					synchronized (monitor) {
+						monitor.wait(Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), POLL_INTERVAL_MILLIS)));
+					}
+					if(tryReserve(limit)){
+						admitted.incrementAndGet(index);
+						return;
+					}
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}finally{
+				waiting.decrementAndGet();
+			}
+		}
+		rejected.incrementAndGet(index);
+		_logger.debug("Rejected {} request, pressure is {}", priority, getPressure());
+		throw new OverloadException("Rejected " + priority + " request as the discovered hosts are overloaded");
+	}
+
+	/*
+	 * Takes an in-flight slot only if the pressure with the current count is below the limit, so concurrent callers
+	 * can never admit more requests than the limit allows and a rejected caller never raises the count.
+	 */
+	private boolean tryReserve(double limit){
+		int current;
+		do{
+			current=inFlight.get();
+			if(getPressure(current)>=limit){
+				return false;
+			}
+		}while(!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/* Records the completion of an admitted request. */
+	public void release(long latencyNanos, boolean failed){
+		inFlight.decrementAndGet();
+		update(latencyNanos, failed?1.0:0.0);
+		notifyWaiting();
+	}
+
+	/* Gives back the slot of an admitted request that the client abandoned, without counting it in the averages. */
+	public void cancel(){
+		inFlight.decrementAndGet();
+		notifyWaiting();
+	}
+
+	private void notifyWaiting(){
+		if(waiting.get()>0){
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Blends the samples into the averages after applying the decay accumulated since the last completion. The
+	 * averages and the time they were last updated are swapped together, so concurrent completions after an idle
+	 * period decay the averages only once.
+	 */
+	private void update(double latencySample, double errorSample){
+		Averages current, next;
+		do{
+			current=averages.get();
+			long now=System.nanoTime();
+			double decay=current.decay(now, decayNanos);
+			double latency=current.latencyNanos * decay;
+			double errorRate=current.errorRate * decay;
+			next=new Averages(latency + EWMA_WEIGHT * (latencySample - latency), errorRate + EWMA_WEIGHT * (errorSample - errorRate),
+					Math.max(now, current.updatedNanos));
+		}while(!averages.compareAndSet(current, next));
+	}
+
+	public double getPressure(){
+		return getPressure(inFlight.get());
+	}
+
+	private double getPressure(int inFlightCount){
+		Averages current=averages.get();
+		double decay=current.decay(System.nanoTime(), decayNanos);
+		double pressure=(double)inFlightCount / maxInFlight;
+		pressure=Math.max(pressure, current.latencyNanos * decay / latencyTargetNanos);
+		pressure=Math.max(pressure, current.errorRate * decay / errorRateThreshold);
+		return pressure;
+	}
+
+	public int getInFlight(){
+		return inFlight.get();
+	}
+	public double getLatencyMillis(){
+		Averages current=averages.get();
+		return current.latencyNanos * current.decay(System.nanoTime(), decayNanos) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	public double getErrorRate(){
+		Averages current=averages.get();
+		return current.errorRate * current.decay(System.nanoTime(), decayNanos);
+	}
+	public long getAdmittedCount(RequestPriority priority){
+		return admitted.get(priority.ordinal());
+	}
+	/* Requests that had to wait before being admitted or rejected. */
+	public long getDelayedCount(RequestPriority priority){
+		return delayed.get(priority.ordinal());
+	}
+	public long getRejectedCount(RequestPriority priority){
+		return rejected.get(priority.ordinal());
+	}
+
+	/* Requests of the priority are admitted while the pressure is below the limit; 1.0 means at capacity. */
+	public void setPressureLimit(RequestPriority priority, double limit){
+		pressureLimits[priority.ordinal()]=limit;
+	}
+	public void setMaxDelay(RequestPriority priority, long delay, TimeUnit unit){
+		maxDelayNanos[priority.ordinal()]=unit.toNanos(delay);
+	}
+	public void setLatencyTarget(long latency, TimeUnit unit){
+		latencyTargetNanos=unit.toNanos(latency);
+	}
+	public void setErrorRateThreshold(double errorRateThreshold){
+		this.errorRateThreshold=errorRateThreshold;
+	}
+	/* Time constant with which the moving averages fade while no request completes. */
+	public void setDecay(long decay, TimeUnit unit){
+		decayNanos=unit.toNanos(decay);
+	}
+
+	private static final class Averages {
+		final double latencyNanos;
+		final double errorRate;
+		final long updatedNanos;
+
+		Averages(double latencyNanos, double errorRate, long updatedNanos){
+			this.latencyNanos=latencyNanos;
+			this.errorRate=errorRate;
+			this.updatedNanos=updatedNanos;
+		}
+
+		double decay(long now, long decayNanos){
+			long idle=now - updatedNanos;
+			return idle>0?Math.exp(-(double)idle / decayNanos):1.0;
+		}
+	}
+}
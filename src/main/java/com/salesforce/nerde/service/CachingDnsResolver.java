@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the names of discovered hosts in the background and serves connects from a cache. Names are looked up
+ * when the host set changes and refreshed before their TTL runs out; an expired entry is still served while it is
+ * being refreshed, and kept if the refresh fails. Every resolve rotates the cached addresses, so new connections
+ * are spread across all A/AAAA records of a name. Each name has at most one lookup in flight: a connect to a
+ * name that is not cached yet waits for that lookup instead of resolving the name itself. A failed lookup is cached
+ * for a quarter of the TTL, so an unresolvable name fails fast instead of being looked up on every connect.
+ */
+public class CachingDnsResolver implements DnsResolver {
+	private static long DEFAULT_TTL_SECONDS=60;
+	private static long DEFAULT_PREFETCH_TIMEOUT_MILLIS=2000;
+	private static int LOOKUP_THREADS=4;
+	private final Logger _logger=LoggerFactory.getLogger(CachingDnsResolver.class);
+
+	private final DnsResolver delegate;
+	private final long ttlNanos;
+	private volatile long prefetchTimeoutMillis=DEFAULT_PREFETCH_TIMEOUT_MILLIS;
+	private final ConcurrentMap<String, Entry> cache=new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, Future<Entry>> pending=new ConcurrentHashMap<String, Future<Entry>>();
+	private final ScheduledExecutorService executor;
+	private final AtomicLong lookupCount=new AtomicLong();
+	private final AtomicLong synchronousLookupCount=new AtomicLong();
+	private final AtomicLong failedLookupCount=new AtomicLong();
+
+	public CachingDnsResolver(){
+		this(DEFAULT_TTL_SECONDS, TimeUnit.SECONDS, SystemDefaultDnsResolver.INSTANCE);
+	}
+
+	public CachingDnsResolver(long ttl, TimeUnit unit, DnsResolver delegate){
+		this.delegate=delegate;
+		this.ttlNanos=unit.toNanos(ttl);
+		ScheduledThreadPoolExecutor pool=new ScheduledThreadPoolExecutor(LOOKUP_THREADS, new ThreadFactory() {
+			private final AtomicInteger count=new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread=new Thread(runnable, "nerde-dns-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pool.setRemoveOnCancelPolicy(true);
+		executor=pool;
+		long period=Math.max(TimeUnit.NANOSECONDS.toMillis(ttlNanos / 4), 1);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				refreshExpiring();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		Entry entry=cache.get(host);
+		if(entry==null){
+			synchronousLookupCount.incrementAndGet();
+			_logger.debug("{} is not cached yet so the connecting thread waits for its lookup", host);
+			entry=await(host, lookupAsync(host));
+		}else if(entry.isExpired(System.nanoTime())){
+			lookupAsync(host);
+		}
+		return entry.next(host);
+	}
+
+	/*
+	 * Resolves the given names in the background, waiting up to the prefetch timeout for them, and forgets names
+	 * that are no longer discovered. Called when the host set changes, before the new connection pool is used.
+	 */
+	public void prefetch(Collection<String> hosts){
+		Set<String> names=new HashSet<String>(hosts);
+		cache.keySet().retainAll(names);
+		List<Future<Entry>> lookups=new ArrayList<Future<Entry>>();
+		for(String name:names){
+			if(!cache.containsKey(name)){
+				lookups.add(lookupAsync(name));
+			}
+		}
+		long deadline=System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(prefetchTimeoutMillis);
+		for(Future<Entry> lookup:lookups){
+			try {
+				lookup.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				_logger.warn("Resolving discovered hosts takes longer than {} ms, continuing while it completes in the background", prefetchTimeoutMillis);
+				break;
+			} catch (ExecutionException e) {
+				_logger.warn("Failed to resolve discovered host: {}", e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	/* Starts a background lookup of the name, or returns the one already in flight. */
+	private Future<Entry> lookupAsync(final String host){
+		Future<Entry> running=pending.get(host);
+		if(running!=null){
+			return running;
+		}
+		FutureTask<Entry> task=new FutureTask<Entry>(new Callable<Entry>() {
+			public Entry call() throws Exception {
+				return lookup(host);
+			}
+		}) {
+			protected void done() {
+				pending.remove(host, this);
+			}
+		};
+		running=pending.putIfAbsent(host, task);
+		if(running!=null){
+			return running;
+		}
+		try{
+			executor.execute(task);
+		}catch(RejectedExecutionException e){
+			//Shut down, resolve on the calling thread
+			task.run();
+		}
+		return task;
+	}
+
+	private Entry await(String host, Future<Entry> lookup) throws UnknownHostException{
+		try {
+			return lookup.get();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof UnknownHostException){
+				throw (UnknownHostException)e.getCause();
+			}
+			UnknownHostException failure=new UnknownHostException(host);
+			failure.initCause(e.getCause());
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException(host);
+		}
+	}
+
+	private Entry lookup(String host) throws UnknownHostException{
+		lookupCount.incrementAndGet();
+		try{
+			InetAddress[] addresses=delegate.resolve(host);
+			if(addresses==null || addresses.length==0){
+				throw new UnknownHostException(host);
+			}
+			Entry entry=new Entry(addresses, System.nanoTime() + ttlNanos);
+			cache.put(host, entry);
+			return entry;
+		}catch(UnknownHostException e){
+			failedLookupCount.incrementAndGet();
+			//Retry after a quarter of the TTL rather than on every connect, keeping the previous addresses if any
+			long expiresAt=System.nanoTime() + ttlNanos / 4;
+			Entry previous=cache.get(host);
+			if(previous!=null && previous.addresses!=null){
+				_logger.warn("Failed to refresh {} so keeping the previous addresses. Reason: {}", host, e.getMessage());
+				cache.replace(host, previous, new Entry(previous.addresses, expiresAt));
+			}else{
+				cache.put(host, new Entry(null, expiresAt));
+			}
+			throw e;
+		}
+	}
+
+	/* Refreshes the entries that expire within the next half of their TTL, so connects rarely see an expired one. */
+	private void refreshExpiring(){
+		long threshold=System.nanoTime() + ttlNanos / 2;
+		for(Map.Entry<String, Entry> cached:cache.entrySet()){
+			if(cached.getValue().isExpired(threshold)){
+				lookupAsync(cached.getKey());
+			}
+		}
+	}
+
+	public void shutdown(){
+		executor.shutdownNow();
+	}
+
+	public void setPrefetchTimeout(long timeout, TimeUnit unit){
+		prefetchTimeoutMillis=unit.toMillis(timeout);
+	}
+	/* Lookups sent to the underlying resolver, in the background or not. */
+	public long getLookupCount(){
+		return lookupCount.get();
+	}
+	/* Connects that had to wait for a lookup because the name was not cached yet. */
+	public long getSynchronousLookupCount(){
+		return synchronousLookupCount.get();
+	}
+	public long getFailedLookupCount(){
+		return failedLookupCount.get();
+	}
+
+	/* Addresses of a name, or a failed lookup when addresses is null. */
+	private static final class Entry {
+		final InetAddress[] addresses;
+		final long expiresAt;
+		final AtomicInteger next=new AtomicInteger();
+
+		Entry(InetAddress[] addresses, long expiresAt){
+			this.addresses=addresses;
+			this.expiresAt=expiresAt;
+		}
+
+		boolean isExpired(long now){
+			return now - expiresAt>=0;
+		}
+
+		/* All addresses, starting with a different one on each call. */
+		InetAddress[] next(String host) throws UnknownHostException{
+			if(addresses==null){
+				throw new UnknownHostException(host);
+			}
+			int length=addresses.length;
+			InetAddress[] result=new InetAddress[length];
+			int start=(next.getAndIncrement() & Integer.MAX_VALUE) % length;
+			System.arraycopy(addresses, start, result, 0, length - start);
+			System.arraycopy(addresses, 0, result, length - start, start);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+/**
+ * Controls parallel dispatch by executeOnAll and executeBatch
+ */
+public class DispatchOptions {
+	private static int DEFAULT_MAX_CONCURRENCY=16;
+	private static long DEFAULT_TIMEOUT_MILLIS=10000;
+	private int maxConcurrency=DEFAULT_MAX_CONCURRENCY;
+	private long timeoutMillis=DEFAULT_TIMEOUT_MILLIS;
+	private int requiredSuccesses=0;
+	private RequestPriority priority=RequestPriority.NORMAL;
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+	/* Requests in flight at the same time for one call. */
+	public void setMaxConcurrency(int maxConcurrency) {
+		if(maxConcurrency<=0){
+			throw new IllegalArgumentException("maxConcurrency must be at least one");
+		}
+		this.maxConcurrency = maxConcurrency;
+	}
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+	/* Deadline of each request, counted from the moment it is started. */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+	public int getRequiredSuccesses() {
+		return requiredSuccesses;
+	}
+	/* Return as soon as this many requests succeeded; 0, the default, waits for all of them. */
+	public void setRequiredSuccesses(int requiredSuccesses) {
+		this.requiredSuccesses = requiredSuccesses;
+	}
+	public RequestPriority getPriority() {
+		return priority;
+	}
+	public void setPriority(RequestPriority priority) {
+		this.priority = priority;
+	}
+}
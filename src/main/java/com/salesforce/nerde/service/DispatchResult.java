@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * Aggregated outcome of executeOnAll or executeBatch, with one outcome per host or request
+ */
+public class DispatchResult {
+	private final List<Outcome> outcomes;
+
+	DispatchResult(List<Outcome> outcomes){
+		this.outcomes=Collections.unmodifiableList(outcomes);
+	}
+
+	public List<Outcome> getOutcomes() {
+		return outcomes;
+	}
+
+	/* Outcomes with a 2xx response. */
+	public List<Outcome> getSuccesses(){
+		List<Outcome> result=new ArrayList<Outcome>();
+		for(Outcome outcome:outcomes){
+			if(outcome.isSuccess()){
+				result.add(outcome);
+			}
+		}
+		return result;
+	}
+
+	/* Outcomes with an error response, an exception, a timeout or a cancellation. */
+	public List<Outcome> getFailures(){
+		List<Outcome> result=new ArrayList<Outcome>();
+		for(Outcome outcome:outcomes){
+			if(!outcome.isSuccess()){
+				result.add(outcome);
+			}
+		}
+		return result;
+	}
+
+	public int getSuccessCount(){
+		return getSuccesses().size();
+	}
+
+	public boolean isAllSuccessful(){
+		return getSuccessCount()==outcomes.size();
+	}
+
+	public static class Outcome {
+		private final int index;
+		private final Host host;
+		private final BatchRequest request;
+		private final HttpResponse response;
+		private final Exception failure;
+		private final long latencyNanos;
+
+		Outcome(int index, Host host, BatchRequest request, HttpResponse response, Exception failure, long latencyNanos){
+			this.index=index;
+			this.host=host;
+			this.request=request;
+			this.response=response;
+			this.failure=failure;
+			this.latencyNanos=latencyNanos;
+		}
+
+		public boolean isSuccess(){
+			if(response==null){
+				return false;
+			}
+			int status=response.getStatusLine().getStatusCode();
+			return status>=200 && status<300;
+		}
+		/* Position of the host or request this outcome belongs to. */
+		public int getIndex() {
+			return index;
+		}
+		/* Host the request was sent to, null if it was never started. */
+		public Host getHost() {
+			return host;
+		}
+		public BatchRequest getRequest() {
+			return request;
+		}
+		/* Response with its body already read, null if the request failed. */
+		public HttpResponse getResponse() {
+			return response;
+		}
+		/* TimeoutException when the deadline passed, CancellationException when it was not needed any more. */
+		public Exception getFailure() {
+			return failure;
+		}
+		/* Time from the start of the request to its outcome, not counting the wait for a dispatch thread. */
+		public long getLatencyNanos() {
+			return latencyNanos;
+		}
+		@Override
+		public String toString() {
+			String target=host!=null?host.getURL():"-";
+			if(response!=null){
+				return request + " " + target + " " + response.getStatusLine().getStatusCode();
+			}
+			return request + " " + target + " " + failure;
+		}
+	}
+}
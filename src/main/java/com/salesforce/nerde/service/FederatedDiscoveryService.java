@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.event.ChangeEvent;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+
+/**
+ * Merges the hosts registered under several ZooKeeper ensembles or service paths. Sources are given in priority
+ * order and requests go to the first source whose session is connected and which has registered hosts, so traffic
+ * fails over to the secondaries when the primary is empty or its session is suspended or lost, and moves back once
+ * it recovers. If no session is connected, the last known hosts of the highest priority source are used.
+ * Host selection reads a single immutable snapshot and does not take any lock.
+ * Sources connect in the background; creating the service waits at most {@link #DEFAULT_STARTUP_WAIT_MILLIS} for
+ * them, so an unreachable ensemble does not block startup and is picked up once it becomes reachable.
+ */
+public class FederatedDiscoveryService extends AbstractDiscoveryService{
+	protected static long DEFAULT_STARTUP_WAIT_MILLIS=5000;
+	private static Map<List<DiscoverySource>, FederatedDiscoveryService> discoveryServiceMap=new HashMap<List<DiscoverySource>, FederatedDiscoveryService>();
+	private final List<DiscoverySource> sources;
+	private final RoundRobinScheduler[] schedulers;
+	private final boolean[] connected;
+	private final Object lock=new Object();
+	private final AtomicInteger nextHost=new AtomicInteger();
+	private volatile Snapshot snapshot=new Snapshot(-1, new Host[0], Collections.<Host>emptyList());
+
+	private FederatedDiscoveryService(List<DiscoverySource> sources, int connCount){
+		super(connCount);
+		if(sources.isEmpty()){
+			throw new IllegalArgumentException("At least one discovery source is required");
+		}
+		this.sources=Collections.unmodifiableList(new ArrayList<DiscoverySource>(sources));
+		schedulers=new RoundRobinScheduler[sources.size()];
+		connected=new boolean[sources.size()];
+		for(int i=0;i<sources.size();i++){
+			final int index=i;
+			RoundRobinScheduler scheduler=new RoundRobinScheduler(sources.get(i).getZkURL(), sources.get(i).getServicePath(), this, false);
+			scheduler.addConnectionStateListener(new ConnectionStateListener() {
+				public void stateChanged(CuratorFramework client, ConnectionState newState) {
+					connectionStateChanged(index, newState);
+				}
+			});
+			synchronized (lock) {
+				schedulers[i]=scheduler;
+				connected[i]=scheduler.isConnected();
+			}
+		}
+		awaitSources(DEFAULT_STARTUP_WAIT_MILLIS);
+		refresh();
+	}
+
+	/* Waits until every source is connected and has read its hosts, or the given time has passed. */
+	private void awaitSources(long waitMillis){
+		long deadline=System.currentTimeMillis() + waitMillis;
+		synchronized (lock) {
+			try {
+				for(int i=0;i<schedulers.length;i++){
+					long remaining;
+					while(!(connected[i] && schedulers[i].isInitialized()) && (remaining=deadline - System.currentTimeMillis())>0){
+						lock.wait(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				_logger.error(e.getMessage());
+			}
+		}
+		for(int i=0;i<schedulers.length;i++){
+			if(!schedulers[i].isInitialized()){
+				_logger.warn("{} is not reachable yet, its hosts will be read once it connects", sources.get(i));
+			}
+		}
+	}
+
+	public static FederatedDiscoveryService getInstance(List<DiscoverySource> sources, int connCount){
+		if(discoveryServiceMap.containsKey(sources)){
+			return discoveryServiceMap.get(sources);
+		}else{
+			synchronized (FederatedDiscoveryService.class) {
+				if(!discoveryServiceMap.containsKey(sources)){
+					List<DiscoverySource> key=new ArrayList<DiscoverySource>(sources);
+					discoveryServiceMap.put(key, new FederatedDiscoveryService(key, connCount));
+				}
+				return discoveryServiceMap.get(sources);
+			}
+		}
+	}
+
+	public Host getHost(){
+		Host host=pollHost();
+		if(host!=null){
+			return host;
+		}
+		synchronized (lock) {
+			try {
+				while(snapshot.activeHosts.length==0){
+					_logger.warn("No host is available in any source so the thread {} will sleep until one of the hosts becomes available.", Thread.currentThread().getName()); 
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				_logger.error(e.getMessage());
+				return null;
+			}
+		}
+		return getHost();
+	}
+
+	protected Host pollHost(){
+		Host[] activeHosts=snapshot.activeHosts;
+		return activeHosts.length>0?activeHosts[(nextHost.getAndIncrement() & Integer.MAX_VALUE) % activeHosts.length]:null;
+	}
+
+	/* Hosts of all sources, highest priority first, without duplicates. */
+	public List<Host> getAllHosts(){
+		return snapshot.allHosts;
+	}
+
+	/* The source requests are currently sent to, or null if none has hosts. */
+	public DiscoverySource getActiveSource(){
+		int index=snapshot.activeSource;
+		return index>=0?sources.get(index):null;
+	}
+
+	public List<DiscoverySource> getSources() {
+		return sources;
+	}
+
+	public void dispose() {
+		for(RoundRobinScheduler scheduler:schedulers){
+			if(scheduler!=null){
+				scheduler.dispose();
+			}
+		}
+		shutdownExecutors();
+	}
+
+	public void stateChanged(ChangeEvent e) {
+		int index=indexOf(e!=null?e.getSource():null);
+		if(index<0){
+			return;
+		}
+		//Reading from a disconnected ensemble would block on the retry policy, keep the last known hosts instead
+		if(schedulers[index].isConnected()){
+			schedulers[index].updateHosts();
+		}
+		refresh();
+	}
+
+	private void connectionStateChanged(int index, ConnectionState newState){
+		_logger.info("ZooKeeper connection of {} is {}", sources.get(index), newState);
+		boolean isConnected=newState==ConnectionState.CONNECTED || newState==ConnectionState.RECONNECTED || newState==ConnectionState.READ_ONLY;
+		synchronized (lock) {
+			connected[index]=isConnected;
+		}
+		if(newState==ConnectionState.RECONNECTED && schedulers[index]!=null){
+			schedulers[index].updateHosts();
+		}
+		refresh();
+	}
+
+	private int indexOf(Object scheduler){
+		synchronized (lock) {
+			for(int i=0;i<schedulers.length;i++){
+				if(schedulers[i]!=null && schedulers[i]==scheduler){
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Rebuilds the snapshot from the schedulers and recreates the HTTP client when the merged host set changed.
+	 * New hosts are resolved before taking the lock so that threads waiting for a host are not held up by DNS.
+	 */
+	private void refresh(){
+		List<Host> allHosts=mergeHosts();
+		if(!allHosts.equals(snapshot.allHosts)){
+			prefetchHosts(allHosts);
+		}
+		synchronized (lock) {
+			Snapshot previous=snapshot;
+			Snapshot next=buildSnapshot();
+			snapshot=next;
+			//Connections are split over the active hosts, so the pool is resized when they change as well
+			if(httpClient==null || !next.allHosts.equals(previous.allHosts) || !Arrays.equals(next.activeHosts, previous.activeHosts)){
+				recreateHttpClient(connectionCount, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, next.allHosts, Arrays.asList(next.activeHosts));
+			}
+			if(next.activeSource!=previous.activeSource){
+				_logger.info("Active discovery source changed from {} to {}", 
+						previous.activeSource>=0?sources.get(previous.activeSource):null, next.activeSource>=0?sources.get(next.activeSource):null);
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private List<Host> mergeHosts(){
+		Set<Host> allHosts=new LinkedHashSet<Host>();
+		for(RoundRobinScheduler scheduler:schedulers){
+			if(scheduler!=null){
+				allHosts.addAll(scheduler.getLastKnownHosts());
+			}
+		}
+		return new ArrayList<Host>(allHosts);
+	}
+
+	private Snapshot buildSnapshot(){
+		List<List<Host>> hostsBySource=new ArrayList<List<Host>>();
+		Set<Host> allHosts=new LinkedHashSet<Host>();
+		for(RoundRobinScheduler scheduler:schedulers){
+			List<Host> hosts=scheduler!=null?new ArrayList<Host>(scheduler.getLastKnownHosts()):Collections.<Host>emptyList();
+			hostsBySource.add(hosts);
+			allHosts.addAll(hosts);
+		}
+		int active=-1;
+		for(int i=0;i<schedulers.length && active<0;i++){
+			if(connected[i] && !hostsBySource.get(i).isEmpty()){
+				active=i;
+			}
+		}
+		for(int i=0;i<schedulers.length && active<0;i++){
+			if(!hostsBySource.get(i).isEmpty()){
+				active=i;
+			}
+		}
+		Host[] activeHosts=active>=0?hostsBySource.get(active).toArray(new Host[0]):new Host[0];
+		return new Snapshot(active, activeHosts, Collections.unmodifiableList(new ArrayList<Host>(allHosts)));
+	}
+
+	private static final class Snapshot {
+		final int activeSource;
+		final Host[] activeHosts;
+		final List<Host> allHosts;
+
+		Snapshot(int activeSource, Host[] activeHosts, List<Host> allHosts){
+			this.activeSource=activeSource;
+			this.activeHosts=activeHosts;
+			this.allHosts=allHosts;
+		}
+	}
+}
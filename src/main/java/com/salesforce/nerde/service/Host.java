@@ -1,5 +1,18 @@
 package com.salesforce.nerde.service;
 
+import java.net.URI;
+
+import org.apache.http.HttpHost;
+
 public interface Host {
 	String getURL();
+	/* Target used to route requests to this host; implementations may cache it. */
+	default HttpHost getHttpHost(){
+		URI uri=URI.create(getURL());
+		return new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+	}
+	/* URI of the given path on this host; implementations may cache it so repeated paths are not parsed again. */
+	default URI getURI(String path){
+		return URI.create(path==null || path.length()==0?getURL():getURL() + '/' + path);
+	}
 }
@@ -30,7 +30,12 @@
  */
 package com.salesforce.nerde.service;
 
+import java.net.URI;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.HttpHost;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -43,12 +48,19 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @JsonIgnoreProperties(value={ "url" }, allowGetters=true)
 public class NerveHost implements Host{
 	private static String DEFAULT_PROTOCOL="http://";
+	private static int MAX_CACHED_PATHS=256;
 	private String host;
 	private int port;
 	private String name;
 	private String protocol;
 	@JsonIgnore
 	private String url; //To improve the performance
+	@JsonIgnore
+	private HttpHost httpHost;
+	@JsonIgnore
+	private URI baseURI;
+	@JsonIgnore
+	private final ConcurrentMap<String, URI> uriCache=new ConcurrentHashMap<String, URI>();
 
 	public NerveHost(){};
 	public NerveHost(String host, int port, String name){
@@ -65,12 +77,14 @@ public class NerveHost implements Host{
 	}
 	public void setHost(String host) {
 		this.host = host;
+		clearCache();
 	}
 	public int getPort() {
 		return port;
 	}
 	public void setPort(int port) {
 		this.port = port;
+		clearCache();
 	}
 	public String getName() {
 		return name;
@@ -83,6 +97,7 @@ public class NerveHost implements Host{
 	}
 	public void setProtocol(String protocol) {
 		this.protocol = protocol;
+		clearCache();
 	}
 	@JsonIgnore
 	public String getURL(){
@@ -96,6 +111,41 @@ public class NerveHost implements Host{
 		}
 		return url;
 	}
+
+	@JsonIgnore
+	public HttpHost getHttpHost(){
+		if(httpHost==null){
+			String scheme=(protocol !=null && protocol.length()>0)?protocol:DEFAULT_PROTOCOL;
+			int index=scheme.indexOf("://");
+			httpHost=new HttpHost(host, port>0?port:-1, index>=0?scheme.substring(0, index):scheme);
+		}
+		return httpHost;
+	}
+
+	@JsonIgnore
+	public URI getURI(String path){
+		if(path==null || path.length()==0){
+			if(baseURI==null){
+				baseURI=URI.create(getURL());
+			}
+			return baseURI;
+		}
+		URI result=uriCache.get(path);
+		if(result==null){
+			result=URI.create(getURL() + '/' + path);
+			if(uriCache.size()<MAX_CACHED_PATHS){
+				uriCache.putIfAbsent(path, result);
+			}
+		}
+		return result;
+	}
+
+	private void clearCache(){
+		url=null;
+		httpHost=null;
+		baseURI=null;
+		uriCache.clear();
+	}
 	
 	@Override
 	public boolean equals(Object obj) {
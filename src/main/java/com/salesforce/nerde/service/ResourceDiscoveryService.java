@@ -30,31 +30,11 @@
  */
 package com.salesforce.nerde.service;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.swing.event.ChangeEvent;
-import javax.swing.event.ChangeListener;
-
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.MethodNotSupportedException;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.conn.routing.HttpRoute;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.salesforce.nerde.exception.NoHostException;
 
@@ -63,26 +43,18 @@ import com.salesforce.nerde.exception.NoHostException;
  * @author  Raj Sarkapally (rsarkapally@salesforce.com)
  *
  */
-public class ResourceDiscoveryService implements ChangeListener{
+public class ResourceDiscoveryService extends AbstractDiscoveryService{
 	private static Map<String, ResourceDiscoveryService> discoveryServiceMap=new HashMap<String, ResourceDiscoveryService>();
-	private static int DEFAULT_CONNECTION_TIMEOUT=10000;
-	private static int DEFAULT_SOCKET_TIMEOUT=300000;
-	private int connectionCount=200; 
 	private RoundRobinScheduler scheduler;
-	private CloseableHttpClient httpClient;
 	Object lock;
 	boolean updateInProgress;
 	private String DEFAULT_PROTOCOL="http://"; 
-	private final Logger _logger=LoggerFactory.getLogger(ResourceDiscoveryService.class);
 	private ResourceDiscoveryService(String zkURL, String servicePath, int connCount){
-		if(connCount>0){
-			connectionCount=connCount;
-		}else{
-			_logger.warn("Connection count must be atleast one. so setting connection count to default value {}",connCount); 
-		}
+		super(connCount);
 		lock=new Object();
 		updateInProgress=true;
 		this.scheduler=new RoundRobinScheduler(zkURL, servicePath, this);
+		prefetchHosts(this.getAllHosts());
 		httpClient=createHttpClient(connectionCount, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, this.getAllHosts());
 		updateInProgress=false;
 	};
@@ -124,6 +96,14 @@ public class ResourceDiscoveryService implements ChangeListener{
 		return result;
 	}
 
+	protected Host pollHost(){
+		try{
+			return scheduler.getHost();
+		}catch(NoHostException e){
+			return null;
+		}
+	}
+
 	public void deleteHost(String nodeName) throws Exception{ 
 		scheduler.deleteNode(nodeName);
 	}
@@ -136,103 +116,17 @@ public class ResourceDiscoveryService implements ChangeListener{
 		if(scheduler!=null){
 			scheduler.dispose();
 		}
-	}
-
-	/* Execute a request given by type requestType. */
-	public HttpResponse executeHttpRequest(HttpMethod requestType, String path, StringEntity entity) throws Exception {
-		HttpResponse httpResponse = null;
-		StringBuilder url = new StringBuilder();
-		url.append(getHost().getURL());
-		if(path != null && path.length()>0){
-			url.append('/');
-			url.append(path);
-		}
-		_logger.info("Invoking URL: {}", url.toString());
-		if (entity != null) {
-			entity.setContentType("application/json");
-		}
-		try {
-			switch (requestType) {
-			case POST:
-
-				HttpPost post = new HttpPost(url.toString());
-
-				post.setEntity(entity);
-				httpResponse = httpClient.execute(post);
-				break;
-			case GET:
-
-				HttpGet httpGet = new HttpGet(url.toString());
-
-				httpResponse = httpClient.execute(httpGet);
-				break;
-			case DELETE:
-
-				HttpDelete httpDelete = new HttpDelete(url.toString());
-
-				httpResponse = httpClient.execute(httpDelete);
-				break;
-			case PUT:
-
-				HttpPut httpput = new HttpPut(url.toString());
-
-				httpput.setEntity(entity);
-				httpResponse = httpClient.execute(httpput);
-				break;
-			default:
-				throw new MethodNotSupportedException(requestType.toString());
-			}
-		} catch (MethodNotSupportedException ex) {
-			throw new Exception(ex);
-		}
-		return httpResponse;
-	}
-
-	private CloseableHttpClient createHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts)  {
-		PoolingHttpClientConnectionManager connMgr = new PoolingHttpClientConnectionManager();
-		connMgr.setMaxTotal(connCount);
-
-		for(Host host : hosts) {
-			try{
-				URL url = new URL(host.getURL()); 
-				int port = url.getPort();
-				if(port == -1){
-					_logger.error("Invalid port for end point: {} so skipping this end point..", host.getURL());
-					continue;
-				}
-				HttpHost httpHost = new HttpHost(url.getHost(),	url.getPort());
-				connMgr.setMaxPerRoute(new HttpRoute(httpHost), connCount / hosts.size());
-			}catch(MalformedURLException e){
-				_logger.warn("The host {} is invalid so ignoring..", host.getURL()); 
-			}
-		}
-
-		RequestConfig reqConfig = RequestConfig.custom().setConnectionRequestTimeout(connTimeout).setConnectTimeout(connTimeout).setSocketTimeout(
-				socketTimeout).build();
-
-		return HttpClients.custom().setConnectionManager(connMgr).setDefaultRequestConfig(reqConfig).build();
-	}
-
-	public CloseableHttpClient getHttpClient(){
-		return httpClient;
-	}
-
-	private CloseableHttpClient recreateHttpClient(int connCount, int connTimeout, int socketTimeout, List<Host> hosts) {
-		if(httpClient != null){
-			try {
-				httpClient.close();
-			} catch (IOException e) {
-				_logger.warn(e.getMessage()); 
-			}
-		}
-		return createHttpClient(connCount, connTimeout, socketTimeout, hosts);
+		shutdownExecutors();
 	}
 
 	public void stateChanged(ChangeEvent e) {
+		//New hosts are resolved and given a pool before requests can be routed to them
+		List<Host> hosts=scheduler.readHosts();
+		prefetchHosts(hosts);
 		synchronized (lock) {
 			updateInProgress=true;
-			scheduler.updateHosts();
-			httpClient = recreateHttpClient(connectionCount, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, getAllHosts());
+			recreateHttpClient(connectionCount, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, hosts);
+			scheduler.publishHosts(hosts);
 			updateInProgress=false;
 			lock.notifyAll();
 		}
@@ -36,12 +36,15 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.api.CuratorListener;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,28 +60,58 @@ public class RoundRobinScheduler {
 	private final Logger _logger=LoggerFactory.getLogger(RoundRobinScheduler.class);
 
 	String zkURL, path;
-	List<Host> hosts;
+	volatile List<Host> hosts=new ArrayList<Host>();
 	int currentHostIndex;
 	Object lock=new Object();
 	boolean updateInProgress;
 	CuratorFramework client;
 	ObjectMapper mapper;
 	ChangeListener listener;
+	volatile boolean initialized;
 
 	public RoundRobinScheduler(String zkURL, String path, ChangeListener listerner){
+		this(zkURL, path, listerner, true);
+	}
+
+	/*
+	 * When waitForConnection is false the constructor returns as soon as the client is started. The path is then
+	 * created and the hosts are read when the session first connects, after which the listener is notified.
+	 */
+	public RoundRobinScheduler(String zkURL, String path, ChangeListener listerner, boolean waitForConnection){
 		this.zkURL=zkURL;
 		this.path=path;
 		this.listener=listerner;
 		currentHostIndex=0;
 		updateInProgress=true;
 		mapper=new ObjectMapper();
-		initializeCuratorFramework();
-		updateHosts();
+		initializeCuratorFramework(waitForConnection);
 	}
 
-	private void initializeCuratorFramework(){
+	private void initializeCuratorFramework(boolean waitForConnection){
 		client = CuratorFrameworkFactory.newClient(zkURL,Integer.MAX_VALUE,Integer.MAX_VALUE, new ExponentialBackoffRetry(1000, 29));
+		client.getCuratorListenable().addListener(new CuratorListener() {
+			public void eventReceived(CuratorFramework framework, CuratorEvent event) throws Exception {
+				listener.stateChanged(new ChangeEvent(RoundRobinScheduler.this));
+			}
+		});
+		if(waitForConnection){
+			client.start();
+			initializeHosts();
+			return;
+		}
+		client.getConnectionStateListenable().addListener(new ConnectionStateListener() {
+			public void stateChanged(CuratorFramework framework, ConnectionState newState) {
+				if(!initialized && newState.isConnected()){
+					initializeHosts();
+					listener.stateChanged(new ChangeEvent(RoundRobinScheduler.this));
+				}
+			}
+		});
+		updateInProgress=false;
 		client.start();
+	}
+
+	private void initializeHosts(){
 		try{
 			if(client.checkExists().forPath(path) ==null){
 				client.create().creatingParentContainersIfNeeded().forPath(path,new byte[0]); 
@@ -86,40 +119,52 @@ public class RoundRobinScheduler {
 		}catch(Exception e){
 			//TODO: throw exception instead of handling here
 		}
-
-		client.getCuratorListenable().addListener(new CuratorListener() {
-			public void eventReceived(CuratorFramework framework, CuratorEvent event) throws Exception {
-				listener.stateChanged(null);
-			}
-		});
+		updateHosts();
+		initialized=true;
 	}
 //TODO: Make nerdeHost as generic and use Interface Host
 	public void updateHosts(){
 		_logger.info("Updating hosts started");
-		hosts=new ArrayList<Host>();
 		synchronized(lock){
-			try {
-				updateInProgress=true;
-				List<String> children = client.getChildren().watched().forPath(path);
-				for(String child:children){
-					try{
-						String nodeData=new String(client.getData().forPath(path+"/"+child));
-						if(nodeData !=null && nodeData.length()>0){
-							NerveHost host = mapper.readValue(nodeData, NerveHost.class); 
-							hosts.add(host);
-						}
+			updateInProgress=true;
+			List<Host> hosts=readHosts();
+			this.hosts=hosts;
+			updateInProgress=false;
+			lock.notifyAll();
+		}
+		_logger.info("Updating hosts complete");
+	}
 
-					}catch (Throwable e) {
-						_logger.info("Failed to process node: " + new String(client.getData().forPath(path+"/"+child)) + "Reason: " + e.getMessage());
+	/* Reads the registered hosts and watches for changes without making the hosts visible to getHost(). */
+	public List<Host> readHosts(){
+		List<Host> hosts=new ArrayList<Host>();
+		try {
+			List<String> children = client.getChildren().watched().forPath(path);
+			for(String child:children){
+				try{
+					String nodeData=new String(client.getData().forPath(path+"/"+child));
+					if(nodeData !=null && nodeData.length()>0){
+						NerveHost host = mapper.readValue(nodeData, NerveHost.class); 
+						hosts.add(host);
 					}
+
+				}catch (Throwable e) {
+					_logger.info("Failed to process node: " + new String(client.getData().forPath(path+"/"+child)) + "Reason: " + e.getMessage());
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
 			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return hosts;
+	}
+
+	/* Makes hosts read by readHosts() visible to getHost(). */
+	public void publishHosts(List<Host> hosts){
+		synchronized(lock){
+			this.hosts=hosts;
 			updateInProgress=false;
 			lock.notifyAll();
 		}
-		_logger.info("Updating hosts complete");
 	}
 
 	public Host getHost() throws NoHostException{ 
@@ -145,6 +190,21 @@ public class RoundRobinScheduler {
 		checkIfUpdateInProgress();
 		return hosts;
 	}
+	/* Hosts read by the last completed update; unlike getAllHosts() this never waits for an update in progress. */
+	public List<Host> getLastKnownHosts(){
+		return hosts;
+	}
+	public boolean isConnected(){
+		return client.getZookeeperClient().isConnected();
+	}
+	/* Whether the path has been created and the hosts have been read at least once. */
+	public boolean isInitialized(){
+		return initialized;
+	}
+	/* Notifies the given listener when the ZooKeeper connection of this scheduler is suspended, lost or reconnected. */
+	public void addConnectionStateListener(ConnectionStateListener connectionStateListener){
+		client.getConnectionStateListenable().addListener(connectionStateListener);
+	}
 	public void dispose(){
 		client.close();
 	}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.salesforce.nerde.exception.OverloadException;
+import com.salesforce.nerde.service.AdmissionController;
+import com.salesforce.nerde.service.RequestPriority;
+
+import junit.framework.TestCase;
+public class AdmissionControllerTest extends TestCase {
+
+	@Test
+	public void testShedsBatchBeforeNormalWhenInFlightGrows(){
+		AdmissionController controller=new AdmissionController(10);
+		controller.setMaxDelay(RequestPriority.BATCH, 0, TimeUnit.MILLISECONDS);
+		for(int i=0;i<7;i++){
+			controller.acquire(RequestPriority.NORMAL);
+		}
+		try{
+			controller.acquire(RequestPriority.BATCH);
+			fail("Batch request must be shed at 70% of capacity");
+		}catch(OverloadException e){
+		}
+		controller.acquire(RequestPriority.NORMAL);
+		assertEquals(1, controller.getRejectedCount(RequestPriority.BATCH));
+		assertEquals(0, controller.getRejectedCount(RequestPriority.NORMAL));
+		assertEquals(8, controller.getAdmittedCount(RequestPriority.NORMAL));
+		assertEquals(8, controller.getInFlight());
+	}
+
+	@Test
+	public void testCriticalIsAdmittedBeyondCapacity(){
+		AdmissionController controller=new AdmissionController(2);
+		controller.acquire(RequestPriority.NORMAL);
+		controller.acquire(RequestPriority.NORMAL);
+		try{
+			controller.acquire(RequestPriority.NORMAL);
+			fail("Normal request must be shed at capacity");
+		}catch(OverloadException e){
+		}
+		controller.acquire(RequestPriority.CRITICAL);
+		assertEquals(1, controller.getAdmittedCount(RequestPriority.CRITICAL));
+		assertEquals(1, controller.getRejectedCount(RequestPriority.NORMAL));
+	}
+
+	@Test
+	public void testShedsOnLatencyAndErrors(){
+		AdmissionController controller=new AdmissionController(100);
+		controller.setLatencyTarget(10, TimeUnit.MILLISECONDS);
+		for(int i=0;i<50;i++){
+			controller.acquire(RequestPriority.CRITICAL);
+			controller.release(TimeUnit.MILLISECONDS.toNanos(50), true);
+		}
+		assertTrue(controller.getPressure()>1.0);
+		assertTrue(controller.getErrorRate()>0.9);
+		try{
+			controller.acquire(RequestPriority.NORMAL);
+			fail("Normal request must be shed while latency is above target");
+		}catch(OverloadException e){
+		}
+		assertEquals(1, controller.getRejectedCount(RequestPriority.NORMAL));
+	}
+
+	@Test
+	public void testDelayedBatchIsAdmittedOnceLoadDrops() throws Exception{
+		final AdmissionController controller=new AdmissionController(10);
+		controller.setMaxDelay(RequestPriority.BATCH, 5, TimeUnit.SECONDS);
+		for(int i=0;i<7;i++){
+			controller.acquire(RequestPriority.NORMAL);
+		}
+		Thread releaser=new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				controller.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+			}
+		});
+		releaser.start();
+		controller.acquire(RequestPriority.BATCH);
+		releaser.join();
+		assertEquals(1, controller.getDelayedCount(RequestPriority.BATCH));
+		assertEquals(1, controller.getAdmittedCount(RequestPriority.BATCH));
+		assertEquals(0, controller.getRejectedCount(RequestPriority.BATCH));
+	}
+
+	@Test
+	public void testRecoversAfterFailureBurst() throws Exception{
+		AdmissionController controller=new AdmissionController(100);
+		controller.setDecay(50, TimeUnit.MILLISECONDS);
+		for(int i=0;i<50;i++){
+			controller.acquire(RequestPriority.CRITICAL);
+			controller.release(TimeUnit.MILLISECONDS.toNanos(1), true);
+		}
+		assertTrue(controller.getPressure()>1.0);
+		Thread.sleep(500);
+		controller.acquire(RequestPriority.NORMAL);
+		controller.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+		assertTrue(controller.getErrorRate()<0.1);
+		controller.acquire(RequestPriority.NORMAL);
+		assertEquals(2, controller.getAdmittedCount(RequestPriority.NORMAL));
+		assertEquals(0, controller.getRejectedCount(RequestPriority.NORMAL));
+	}
+
+	@Test
+	public void testConcurrentCallersDoNotExceedCapacity() throws Exception{
+		final AdmissionController controller=new AdmissionController(10);
+		controller.setMaxDelay(RequestPriority.BATCH, 0, TimeUnit.MILLISECONDS);
+		final CountDownLatch start=new CountDownLatch(1);
+		List<Thread> threads=new ArrayList<Thread>();
+		for(int i=0;i<32;i++){
+			final RequestPriority priority=i%2==0?RequestPriority.NORMAL:RequestPriority.BATCH;
+			Thread thread=new Thread(new Runnable() {
+				public void run() {
+					try{
+						start.await();
+						controller.acquire(priority);
+					}catch(OverloadException e){
+					}catch(InterruptedException e){
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for(Thread thread:threads){
+			thread.join();
+		}
+		assertEquals(10, controller.getInFlight());
+		assertEquals(10, controller.getAdmittedCount(RequestPriority.NORMAL) + controller.getAdmittedCount(RequestPriority.BATCH));
+		assertTrue(controller.getAdmittedCount(RequestPriority.BATCH)<=7);
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salesforce.nerde.service.CachingDnsResolver;
+
+import junit.framework.TestCase;
+public class CachingDnsResolverTest extends TestCase {
+	private AtomicInteger lookups;
+	private volatile boolean failing;
+	private volatile long delayMillis;
+	private InetAddress[] addresses;
+	private DnsResolver delegate;
+	private CachingDnsResolver resolver;
+
+	@Before
+	public void setUp() throws Exception {
+		lookups=new AtomicInteger();
+		failing=false;
+		delayMillis=0;
+		addresses=new InetAddress[]{InetAddress.getByAddress("www.host1.com", new byte[]{10,0,0,1}),
+				InetAddress.getByAddress("www.host1.com", new byte[]{10,0,0,2})};
+		delegate=new DnsResolver() {
+			public InetAddress[] resolve(String host) throws UnknownHostException {
+				lookups.incrementAndGet();
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if(failing){
+					throw new UnknownHostException(host);
+				}
+				return addresses;
+			}
+		};
+		resolver=new CachingDnsResolver(200, TimeUnit.MILLISECONDS, delegate);
+	}
+
+	@After
+	public void tearDown() {
+		resolver.shutdown();
+	}
+
+	@Test
+	public void testPrefetchedHostIsServedFromCacheAcrossAllAddresses() throws Exception{
+		resolver.prefetch(Arrays.asList("www.host1.com"));
+		assertEquals(1, lookups.get());
+		Set<InetAddress> first=new HashSet<InetAddress>();
+		for(int i=0;i<4;i++){
+			InetAddress[] resolved=resolver.resolve("www.host1.com");
+			assertEquals(2, resolved.length);
+			first.add(resolved[0]);
+		}
+		assertEquals(new HashSet<InetAddress>(Arrays.asList(addresses)), first);
+		assertEquals(1, lookups.get());
+		assertEquals(0, resolver.getSynchronousLookupCount());
+	}
+
+	@Test
+	public void testExpiredHostIsRefreshedInBackgroundAndKeptOnFailure() throws Exception{
+		resolver.prefetch(Arrays.asList("www.host1.com"));
+		Thread.sleep(500);
+		assertTrue(lookups.get()>1);
+		failing=true;
+		int before=lookups.get();
+		Thread.sleep(500);
+		assertTrue(lookups.get()>before);
+		assertEquals(2, resolver.resolve("www.host1.com").length);
+		assertEquals(0, resolver.getSynchronousLookupCount());
+		assertTrue(resolver.getFailedLookupCount()>0);
+	}
+
+	@Test
+	public void testUncachedHostIsResolvedOnDemandAndForgottenWhenNoLongerDiscovered() throws Exception{
+		resolver.resolve("www.host1.com");
+		assertEquals(1, resolver.getSynchronousLookupCount());
+		resolver.resolve("www.host1.com");
+		assertEquals(1, resolver.getSynchronousLookupCount());
+		resolver.prefetch(Arrays.asList("www.host2.com"));
+		resolver.resolve("www.host1.com");
+		assertEquals(2, resolver.getSynchronousLookupCount());
+	}
+
+	@Test
+	public void testUnresolvableHostIsLookedUpOnceAndCachedAsFailure() throws Exception{
+		final CachingDnsResolver slowResolver=new CachingDnsResolver(60, TimeUnit.SECONDS, delegate);
+		failing=true;
+		delayMillis=200;
+		final AtomicInteger failures=new AtomicInteger();
+		List<Thread> threads=new ArrayList<Thread>();
+		for(int i=0;i<8;i++){
+			Thread thread=new Thread(new Runnable() {
+				public void run() {
+					try {
+						slowResolver.resolve("www.unknown.com");
+					} catch (UnknownHostException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for(Thread thread:threads){
+			thread.join();
+		}
+		assertEquals(8, failures.get());
+		assertEquals(1, lookups.get());
+		try{
+			slowResolver.resolve("www.unknown.com");
+			fail("The failed lookup must be cached");
+		}catch(UnknownHostException e){
+		}
+		assertEquals(1, lookups.get());
+		assertEquals(1, slowResolver.getFailedLookupCount());
+		slowResolver.shutdown();
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.nerde.service.DiscoverySource;
+import com.salesforce.nerde.service.FederatedDiscoveryService;
+import com.salesforce.nerde.service.Host;
+import com.salesforce.nerde.service.NerveHost;
+
+import junit.framework.TestCase;
+public class FederatedDiscoveryServiceTest extends TestCase {
+	private TestingServer primaryServer, secondaryServer;
+	private String servicePath="/nerve/services";
+	CuratorFramework primaryClient, secondaryClient;
+	List<DiscoverySource> sources;
+	FederatedDiscoveryService service;
+	ObjectMapper mapper=new ObjectMapper();
+	NerveHost host1=new NerveHost("www.host1.com",1111,"host1",null);
+	NerveHost host2=new NerveHost("www.host2.com",2222,"host2",null);
+
+	@Before
+	public void setUp() {
+		try {
+			primaryServer = new TestingServer();
+			secondaryServer = new TestingServer();
+			primaryClient=CuratorFrameworkFactory.newClient(primaryServer.getConnectString(),new RetryOneTime(1000));
+			secondaryClient=CuratorFrameworkFactory.newClient(secondaryServer.getConnectString(),new RetryOneTime(1000));
+			primaryClient.start();
+			secondaryClient.start();
+			primaryClient.create().creatingParentContainersIfNeeded().forPath(servicePath+"/"+host1.getName(),mapper.writeValueAsBytes(host1));
+			secondaryClient.create().creatingParentContainersIfNeeded().forPath(servicePath+"/"+host2.getName(),mapper.writeValueAsBytes(host2));
+		} catch (Exception ex) {
+			fail("Exception during zookeeper startup." + "Reason:" + ex.toString());
+		}
+		sources=Arrays.asList(new DiscoverySource(primaryServer.getConnectString(), servicePath),
+				new DiscoverySource(secondaryServer.getConnectString(), servicePath));
+		service=FederatedDiscoveryService.getInstance(sources, 2);
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			service.dispose();
+			primaryClient.close();
+			secondaryClient.close();
+			primaryServer.close();
+			secondaryServer.close();
+			clearInstances();
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void clearInstances() throws Exception {
+		Field discoveryServiceMapField = FederatedDiscoveryService.class.getDeclaredField("discoveryServiceMap");
+		discoveryServiceMapField.setAccessible(true);
+		discoveryServiceMapField.set(FederatedDiscoveryService.class, new HashMap<List<DiscoverySource>, FederatedDiscoveryService>()); 
+	}
+
+	@Test
+	public void testMergesHostsAndPrefersPrimary(){
+		List<Host> expected=Arrays.<Host>asList(host1, host2);
+		assertEquals(expected, service.getAllHosts());
+		assertEquals(service.getSources().get(0), service.getActiveSource());
+		assertEquals(host1, service.getHost());
+		assertEquals(host1, service.getHost());
+	}
+
+	@Test
+	public void testFailsOverWhenPrimaryHasNoHosts(){
+		try{
+			primaryClient.delete().forPath(servicePath+"/"+host1.getName());
+			Thread.sleep(1000);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(service.getSources().get(1), service.getActiveSource());
+		assertEquals(host2, service.getHost());
+		try{
+			primaryClient.create().forPath(servicePath+"/"+host1.getName(),mapper.writeValueAsBytes(host1));
+			Thread.sleep(1000);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(host1, service.getHost());
+	}
+
+	@Test
+	public void testFailsOverWhenPrimarySessionIsLost(){
+		long recreations=service.getHttpClientRecreationCount();
+		try{
+			primaryServer.stop();
+			Thread.sleep(2000);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(service.getSources().get(1), service.getActiveSource());
+		assertEquals(host2, service.getHost());
+		//The merged hosts are unchanged but the pool must be resized for the new active hosts
+		assertTrue(service.getHttpClientRecreationCount()>recreations);
+		try{
+			primaryServer.restart();
+			Thread.sleep(3000);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(service.getSources().get(0), service.getActiveSource());
+		assertEquals(host1, service.getHost());
+	}
+
+	@Test
+	public void testStartsWhenPrimaryIsUnreachable(){
+		long started=0;
+		try{
+			service.dispose();
+			clearInstances();
+			primaryServer.stop();
+			started=System.currentTimeMillis();
+			service=FederatedDiscoveryService.getInstance(sources, 2);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertTrue(System.currentTimeMillis() - started < 10000);
+		assertEquals(service.getSources().get(1), service.getActiveSource());
+		assertEquals(host2, service.getHost());
+		try{
+			primaryServer.restart();
+			Thread.sleep(3000);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(service.getSources().get(0), service.getActiveSource());
+		assertEquals(host1, service.getHost());
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
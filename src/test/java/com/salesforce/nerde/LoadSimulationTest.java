@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.nerde.service.ResourceDiscoveryService;
+import com.salesforce.nerde.simulation.LatencyDistribution;
+import com.salesforce.nerde.simulation.LoadSimulation;
+import com.salesforce.nerde.simulation.SimulationReport;
+
+import junit.framework.TestCase;
+public class LoadSimulationTest extends TestCase {
+
+	@After
+	public void tearDown() {
+		try {
+			Field discoveryServiceMapField = ResourceDiscoveryService.class.getDeclaredField("discoveryServiceMap");
+			discoveryServiceMapField.setAccessible(true);
+			discoveryServiceMapField.set(ResourceDiscoveryService.class, new HashMap<String, ResourceDiscoveryService>());
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	@Test
+	public void testShortSimulationReportsLoadOnEveryBackend() throws Exception{
+		LoadSimulation simulation=new LoadSimulation();
+		simulation.setBackendCount(3);
+		simulation.setClientThreads(4);
+		simulation.setDurationMillis(3000);
+		simulation.setLatencies(LatencyDistribution.constant(1));
+		simulation.setErrorRates(0.1);
+		simulation.setChurnIntervalMillis(500);
+		simulation.setPauseIntervalMillis(700);
+		simulation.setPauseMillis(50);
+		SimulationReport report=simulation.run();
+
+		assertTrue(report.getRequestCount()>0);
+		assertEquals(3, report.getRequestsPerHost().size());
+		for(long count:report.getRequestsPerHost().values()){
+			assertTrue(count>0);
+		}
+		assertTrue(report.getHttpErrorCount()>0);
+		assertTrue(report.getMembershipChanges()>0);
+		assertTrue(report.getPoolRecreations()>0);
+		assertTrue(report.getConnectionsOpened()>=3);
+		assertTrue(report.getLatencyPercentile(50)<=report.getLatencyPercentile(99));
+		assertTrue(report.getLoadSkew()>=1.0);
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
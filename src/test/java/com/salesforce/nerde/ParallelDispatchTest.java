@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.nerde.exception.NoHostException;
+import com.salesforce.nerde.service.AdmissionController;
+import com.salesforce.nerde.service.BatchRequest;
+import com.salesforce.nerde.service.DispatchOptions;
+import com.salesforce.nerde.service.DispatchResult;
+import com.salesforce.nerde.service.Host;
+import com.salesforce.nerde.service.RequestPriority;
+import com.salesforce.nerde.service.ResourceDiscoveryService;
+import com.salesforce.nerde.service.ResourceDiscoveryService.HttpMethod;
+import com.salesforce.nerde.simulation.LatencyDistribution;
+import com.salesforce.nerde.simulation.StubBackend;
+
+import junit.framework.TestCase;
+public class ParallelDispatchTest extends TestCase {
+	private TestingServer zkTestServer;
+	private String servicePath="/nerve/services";
+	CuratorFramework client;
+	List<StubBackend> backends=new ArrayList<StubBackend>();
+	ResourceDiscoveryService service;
+
+	@Before
+	public void setUp() {
+		try {
+			zkTestServer = new TestingServer();
+			client=CuratorFrameworkFactory.newClient(zkTestServer.getConnectString(),new RetryOneTime(1000));
+			client.start();
+			backends.add(new StubBackend("fast1", LatencyDistribution.constant(0), 0, 1, 4));
+			backends.add(new StubBackend("fast2", LatencyDistribution.constant(0), 0, 2, 4));
+			backends.add(new StubBackend("slow", LatencyDistribution.constant(3000), 0, 3, 4));
+			ObjectMapper mapper=new ObjectMapper();
+			for(StubBackend backend:backends){
+				backend.start();
+				client.create().creatingParentContainersIfNeeded().forPath(servicePath+"/"+backend.getName(),mapper.writeValueAsBytes(backend.toNerveHost()));
+			}
+			service=ResourceDiscoveryService.getInstance(zkTestServer.getConnectString(), servicePath, 30);
+			Thread.sleep(1000);
+		} catch (Exception ex) {
+			fail("Exception during startup." + "Reason:" + ex.toString());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			service.dispose();
+			for(StubBackend backend:backends){
+				backend.stop();
+			}
+			client.close();
+			zkTestServer.close();
+			Field discoveryServiceMapField = ResourceDiscoveryService.class.getDeclaredField("discoveryServiceMap");
+			discoveryServiceMapField.setAccessible(true);
+			discoveryServiceMapField.set(ResourceDiscoveryService.class, new HashMap<String, ResourceDiscoveryService>()); 
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	@Test
+	public void testExecuteOnAllReportsSuccessesAndTimeouts(){
+		DispatchOptions options=new DispatchOptions();
+		options.setTimeoutMillis(500);
+		long start=System.currentTimeMillis();
+		DispatchResult result=service.executeOnAll(HttpMethod.GET, "cache", null, options);
+		long elapsed=System.currentTimeMillis() - start;
+
+		assertTrue("Took " + elapsed + " ms", elapsed<2000);
+		assertEquals(3, result.getOutcomes().size());
+		assertEquals(2, result.getSuccessCount());
+		assertEquals(1, result.getFailures().size());
+		DispatchResult.Outcome failure=result.getFailures().get(0);
+		assertTrue(failure.getFailure() instanceof TimeoutException);
+		assertEquals(backends.get(2).toNerveHost(), failure.getHost());
+	}
+
+	@Test
+	public void testExecuteOnAllReturnsAfterFirstSuccess(){
+		DispatchOptions options=new DispatchOptions();
+		options.setRequiredSuccesses(1);
+		long start=System.currentTimeMillis();
+		DispatchResult result=service.executeOnAll(HttpMethod.GET, "cache", null, options);
+		long elapsed=System.currentTimeMillis() - start;
+
+		assertTrue("Took " + elapsed + " ms", elapsed<2000);
+		assertEquals(3, result.getOutcomes().size());
+		assertTrue(result.getSuccessCount()>=1);
+		DispatchResult.Outcome slow=null;
+		for(DispatchResult.Outcome outcome:result.getOutcomes()){
+			if(backends.get(2).toNerveHost().equals(outcome.getHost())){
+				slow=outcome;
+			}
+		}
+		assertNotNull(slow);
+		assertFalse(slow.isSuccess());
+	}
+
+	@Test
+	public void testAbortedRequestsAreNotCountedAsErrors() throws Exception{
+		AdmissionController controller=new AdmissionController(30);
+		service.setAdmissionController(controller);
+		DispatchOptions options=new DispatchOptions();
+		options.setTimeoutMillis(500);
+		DispatchResult result=service.executeOnAll(HttpMethod.GET, "cache", null, options);
+		Thread.sleep(500);
+
+		assertEquals(1, result.getFailures().size());
+		assertEquals(0, controller.getInFlight());
+		assertEquals(0.0, controller.getErrorRate());
+	}
+
+	@Test
+	public void testAdmissionSlotIsHeldUntilBodyIsRead() throws Exception{
+		AdmissionController controller=new AdmissionController(30);
+		service.setAdmissionController(controller);
+		service.deleteHost(backends.get(2).getName());
+		Thread.sleep(1000);
+		HttpResponse response=service.executeHttpRequest(HttpMethod.GET, "cache", null);
+
+		assertEquals(1, controller.getInFlight());
+		EntityUtils.consume(response.getEntity());
+		assertEquals(0, controller.getInFlight());
+		assertEquals(1, controller.getAdmittedCount(RequestPriority.NORMAL));
+	}
+
+	@Test
+	public void testExecuteBatchFailsWithoutWaitingWhenNoHostIsAvailable() throws Exception{
+		for(StubBackend backend:backends){
+			client.delete().forPath(servicePath+"/"+backend.getName());
+		}
+		Thread.sleep(1000);
+		List<BatchRequest> requests=new ArrayList<BatchRequest>();
+		requests.add(new BatchRequest(HttpMethod.GET, "item/0"));
+		requests.add(new BatchRequest(HttpMethod.GET, "item/1"));
+		long start=System.currentTimeMillis();
+		DispatchResult result=service.executeBatch(requests, new DispatchOptions());
+		long elapsed=System.currentTimeMillis() - start;
+
+		assertTrue("Took " + elapsed + " ms", elapsed<2000);
+		assertEquals(0, result.getSuccessCount());
+		for(DispatchResult.Outcome outcome:result.getOutcomes()){
+			assertTrue(outcome.getFailure() instanceof NoHostException);
+		}
+	}
+
+	@Test
+	public void testExecuteBatchSpreadsRequestsAndKeepsOrder(){
+		List<BatchRequest> requests=new ArrayList<BatchRequest>();
+		for(int i=0;i<12;i++){
+			requests.add(new BatchRequest(HttpMethod.GET, "item/" + i));
+		}
+		DispatchOptions options=new DispatchOptions();
+		options.setMaxConcurrency(4);
+		options.setTimeoutMillis(500);
+		DispatchResult result=service.executeBatch(requests, options);
+
+		assertEquals(12, result.getOutcomes().size());
+		Set<Host> hosts=new HashSet<Host>();
+		for(int i=0;i<12;i++){
+			DispatchResult.Outcome outcome=result.getOutcomes().get(i);
+			assertEquals(i, outcome.getIndex());
+			assertSame(requests.get(i), outcome.getRequest());
+			hosts.add(outcome.getHost());
+		}
+		assertEquals(3, hosts.size());
+		assertEquals(8, result.getSuccessCount());
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
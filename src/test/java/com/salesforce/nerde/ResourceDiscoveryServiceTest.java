@@ -31,6 +31,7 @@
 package com.salesforce.nerde;
 
 import java.lang.reflect.Field;
+import java.net.URI;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,6 +42,7 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.RetryOneTime;
 import org.apache.curator.test.TestingServer;
+import org.apache.http.HttpHost;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -168,5 +170,30 @@ public class ResourceDiscoveryServiceTest extends TestCase {
 		}
 		assertEquals(0, service.getAllHosts().size());     
 	}
+
+	@Test
+	public void testNerveHostCachesTargetAndURIs(){
+		NerveHost host=new NerveHost("www.host1.com",1111,"host1","https://");
+		assertEquals(new HttpHost("www.host1.com",1111,"https"), host.getHttpHost());
+		assertSame(host.getHttpHost(), host.getHttpHost());
+		assertEquals(URI.create("https://www.host1.com:1111"), host.getURI(null));
+		assertEquals(URI.create("https://www.host1.com:1111/api/status"), host.getURI("api/status"));
+		assertSame(host.getURI("api/status"), host.getURI("api/status"));
+		host.setPort(2222);
+		assertEquals(URI.create("https://www.host1.com:2222/api/status"), host.getURI("api/status"));
+		assertEquals(2222, host.getHttpHost().getPort());
+	}
+
+	@Test
+	public void testHostDerivesTargetAndURIsFromURL(){
+		Host host=new Host() {
+			public String getURL() {
+				return "https://www.host1.com:1111";
+			}
+		};
+		assertEquals(new HttpHost("www.host1.com",1111,"https"), host.getHttpHost());
+		assertEquals(URI.create("https://www.host1.com:1111"), host.getURI(""));
+		assertEquals(URI.create("https://www.host1.com:1111/api/status"), host.getURI("api/status"));
+	}
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
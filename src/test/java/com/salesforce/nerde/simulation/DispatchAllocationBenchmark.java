@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.simulation;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.nerde.service.ResourceDiscoveryService;
+import com.salesforce.nerde.service.ResourceDiscoveryService.HttpMethod;
+
+/**
+ * Measures the bytes allocated by the calling thread for each {@link ResourceDiscoveryService#executeHttpRequest}
+ * against a single zero-latency {@link StubBackend}. Only the client thread is measured, so the backend does not
+ * show up in the numbers. Run it with
+ * {@code mvn -Psimulation test-compile exec:java -Dsimulation.main=com.salesforce.nerde.simulation.DispatchAllocationBenchmark}.
+ */
+public class DispatchAllocationBenchmark {
+	private static final String SERVICE_PATH="/nerde/benchmark";
+
+	public static void main(String[] args) throws Exception {
+		int warmup=args.length>0?Integer.parseInt(args[0]):5000;
+		int iterations=args.length>1?Integer.parseInt(args[1]):20000;
+		com.sun.management.ThreadMXBean threadBean=(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if(!threadBean.isThreadAllocatedMemorySupported()){
+			System.err.println("Per-thread allocation accounting is not supported by this JVM");
+			System.exit(1);
+		}
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		TestingServer zkServer=new TestingServer();
+		CuratorFramework client=CuratorFrameworkFactory.newClient(zkServer.getConnectString(), new RetryOneTime(1000));
+		StubBackend backend=new StubBackend("backend0", LatencyDistribution.constant(0), 0, 1, 2);
+		ResourceDiscoveryService service=null;
+		try{
+			client.start();
+			backend.start();
+			client.create().creatingParentContainersIfNeeded().forPath(SERVICE_PATH + "/" + backend.getName(),
+					new ObjectMapper().writeValueAsBytes(backend.toNerveHost()));
+			service=ResourceDiscoveryService.getInstance(zkServer.getConnectString(), SERVICE_PATH, 10);
+			while(service.getAllHosts().isEmpty()){
+				Thread.sleep(50);
+			}
+			long threadId=Thread.currentThread().getId();
+			for(HttpMethod method:new HttpMethod[]{HttpMethod.GET, HttpMethod.POST}){
+				for(String path:new String[]{null, "api/v1/status"}){
+					run(service, method, path, warmup);
+					long before=threadBean.getThreadAllocatedBytes(threadId);
+					long start=System.nanoTime();
+					run(service, method, path, iterations);
+					long elapsed=System.nanoTime() - start;
+					long allocated=threadBean.getThreadAllocatedBytes(threadId) - before;
+					System.out.println(String.format("%-4s path=%-14s %8d bytes/request %8.1f us/request",
+							method, path, allocated / iterations, elapsed / 1000.0 / iterations));
+				}
+			}
+		}finally{
+			if(service!=null){
+				service.getHttpClient().close();
+				service.dispose();
+			}
+			backend.stop();
+			client.close();
+			zkServer.close();
+		}
+		System.exit(0);
+	}
+
+	private static void run(ResourceDiscoveryService service, HttpMethod method, String path, int iterations) throws Exception{
+		for(int i=0;i<iterations;i++){
+			StringEntity entity=method==HttpMethod.POST?new StringEntity("{}"):null;
+			HttpResponse response=service.executeHttpRequest(method, path, entity);
+			EntityUtils.consume(response.getEntity());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.simulation;
+
+import java.util.Random;
+
+/**
+ * Produces the service time, in milliseconds, of a single request served by a {@link StubBackend}
+ */
+public abstract class LatencyDistribution {
+
+	public abstract long nextMillis(Random random);
+
+	public static LatencyDistribution constant(final long millis){
+		return new LatencyDistribution() {
+			public long nextMillis(Random random) {
+				return millis;
+			}
+			public String toString() {
+				return "constant(" + millis + ")";
+			}
+		};
+	}
+
+	public static LatencyDistribution uniform(final long minMillis, final long maxMillis){
+		return new LatencyDistribution() {
+			public long nextMillis(Random random) {
+				return minMillis + (long)(random.nextDouble() * (maxMillis - minMillis));
+			}
+			public String toString() {
+				return "uniform(" + minMillis + "," + maxMillis + ")";
+			}
+		};
+	}
+
+	public static LatencyDistribution exponential(final double meanMillis){
+		return new LatencyDistribution() {
+			public long nextMillis(Random random) {
+				return (long)(-meanMillis * Math.log(1.0 - random.nextDouble()));
+			}
+			public String toString() {
+				return "exponential(" + meanMillis + ")";
+			}
+		};
+	}
+
+	/* Log-normal service time with the given median; sigma controls the length of the tail. */
+	public static LatencyDistribution logNormal(final double medianMillis, final double sigma){
+		return new LatencyDistribution() {
+			public long nextMillis(Random random) {
+				return (long)(medianMillis * Math.exp(sigma * random.nextGaussian()));
+			}
+			public String toString() {
+				return "logNormal(" + medianMillis + "," + sigma + ")";
+			}
+		};
+	}
+
+	/*
+	 * Parses the textual form used on the simulation command line, e.g. "constant:5", "uniform:2:20",
+	 * "exponential:10" or "lognormal:8:0.5".
+	 */
+	public static LatencyDistribution parse(String spec){
+		String[] parts = spec.trim().split(":");
+		try{
+			switch (parts[0].toLowerCase()) {
+			case "constant":
+				return constant(Long.parseLong(parts[1]));
+			case "uniform":
+				return uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+			case "exponential":
+				return exponential(Double.parseDouble(parts[1]));
+			case "lognormal":
+				return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+			default:
+				throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+			}
+		}catch(ArrayIndexOutOfBoundsException e){
+			throw new IllegalArgumentException("Missing parameters for latency distribution: " + spec);
+		}
+	}
+}
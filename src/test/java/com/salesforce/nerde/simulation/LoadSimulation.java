@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.nerde.exception.OverloadException;
+import com.salesforce.nerde.service.AdmissionController;
+import com.salesforce.nerde.service.RequestPriority;
+import com.salesforce.nerde.service.ResourceDiscoveryService;
+import com.salesforce.nerde.service.ResourceDiscoveryService.HttpMethod;
+
+/**
+ * Drives {@link ResourceDiscoveryService#executeHttpRequest} from many threads against in-process {@link StubBackend}s
+ * registered in a curator-test {@link TestingServer}, while backends join and leave the service path and pause.
+ * Run it with {@code mvn -Psimulation test-compile exec:java -Dsimulation.args="threads=32 duration=30000"}.
+ */
+public class LoadSimulation {
+	private final Logger _logger=LoggerFactory.getLogger(LoadSimulation.class);
+
+	private int backendCount=4;
+	private int clientThreads=16;
+	private int connectionCount=200;
+	private long durationMillis=10000;
+	private List<LatencyDistribution> latencies=Arrays.asList(LatencyDistribution.logNormal(5, 0.5));
+	private List<Double> errorRates=Arrays.asList(0.01);
+	private long churnIntervalMillis=1000;
+	private long pauseIntervalMillis=0;
+	private long pauseMillis=200;
+	private long seed=42;
+	private boolean admissionControl=false;
+	private double batchFraction=0;
+	private double criticalFraction=0;
+	private String servicePath="/nerde/simulation";
+	private String requestPath="sim";
+
+	public SimulationReport run() throws Exception{
+		final Random random=new Random(seed);
+		final List<StubBackend> backends=new ArrayList<StubBackend>();
+		TestingServer zkServer=new TestingServer();
+		CuratorFramework client=CuratorFrameworkFactory.newClient(zkServer.getConnectString(), new RetryOneTime(1000));
+		ResourceDiscoveryService service=null;
+		ScheduledExecutorService disruptor=Executors.newScheduledThreadPool(2);
+		ExecutorService workers=Executors.newFixedThreadPool(clientThreads);
+		try{
+			client.start();
+			for(int i=0;i<backendCount;i++){
+				StubBackend backend=new StubBackend("backend" + i, latencies.get(i % latencies.size()),
+						errorRates.get(i % errorRates.size()), random.nextLong(), clientThreads);
+				backend.start();
+				backends.add(backend);
+				register(client, backend);
+			}
+			service=ResourceDiscoveryService.getInstance(zkServer.getConnectString(), servicePath, connectionCount);
+			awaitHosts(service, backendCount);
+			AdmissionController admissionController=admissionControl?new AdmissionController(connectionCount):null;
+			service.setAdmissionController(admissionController);
+			_logger.info("Simulation started with {} backends and {} client threads for {} ms", backendCount, clientThreads, durationMillis);
+
+			final AtomicLong membershipChanges=new AtomicLong();
+			final AtomicLong pauses=new AtomicLong();
+			final boolean[] registered=new boolean[backendCount];
+			Arrays.fill(registered, true);
+			final CuratorFramework zkClient=client;
+			//Each disruptor task draws from its own generator so the schedule does not depend on thread interleaving
+			final Random churnRandom=new Random(random.nextLong());
+			final Random pauseRandom=new Random(random.nextLong());
+			long initialRecreations=service.getHttpClientRecreationCount();
+			long initialConnections=service.getConnectionsOpenedCount();
+			if(churnIntervalMillis>0){
+				disruptor.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						churn(zkClient, backends, registered, churnRandom);
+						membershipChanges.incrementAndGet();
+					}
+				}, churnIntervalMillis, churnIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+			if(pauseIntervalMillis>0){
+				disruptor.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						backends.get(pauseRandom.nextInt(backends.size())).pause(pauseMillis);
+						pauses.incrementAndGet();
+					}
+				}, pauseIntervalMillis, pauseIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+
+			long start=System.currentTimeMillis();
+			long deadline=start + durationMillis;
+			List<Future<Worker>> futures=new ArrayList<Future<Worker>>();
+			for(int i=0;i<clientThreads;i++){
+				futures.add(workers.submit(new Worker(service, deadline, random.nextLong())));
+			}
+			workers.shutdown();
+			if(!workers.awaitTermination(durationMillis + 30000, TimeUnit.MILLISECONDS)){
+				_logger.warn("Client threads did not finish in time, interrupting them");
+				workers.shutdownNow();
+				workers.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			long elapsed=System.currentTimeMillis() - start;
+			disruptor.shutdownNow();
+
+			long success=0, httpErrors=0, failures=0;
+			long[] shed=new long[RequestPriority.values().length];
+			int latencyCount=0;
+			List<Worker> results=new ArrayList<Worker>();
+			for(Future<Worker> future:futures){
+				Worker worker=future.get();
+				results.add(worker);
+				success+=worker.successCount;
+				httpErrors+=worker.httpErrorCount;
+				failures+=worker.failureCount;
+				latencyCount+=worker.count;
+				for(int i=0;i<shed.length;i++){
+					shed[i]+=worker.shedCount[i];
+				}
+			}
+			long[] allLatencies=new long[latencyCount];
+			int offset=0;
+			for(Worker worker:results){
+				System.arraycopy(worker.latencies, 0, allLatencies, offset, worker.count);
+				offset+=worker.count;
+			}
+			Map<String, Long> requestsPerHost=new LinkedHashMap<String, Long>();
+			for(StubBackend backend:backends){
+				requestsPerHost.put(backend.getName(), backend.getRequestCount());
+			}
+			Map<RequestPriority, Long> shedPerPriority=new LinkedHashMap<RequestPriority, Long>();
+			for(RequestPriority priority:RequestPriority.values()){
+				shedPerPriority.put(priority, shed[priority.ordinal()]);
+			}
+			return new SimulationReport(elapsed, allLatencies, success, httpErrors, failures, shedPerPriority, requestsPerHost,
+					service.getConnectionsOpenedCount() - initialConnections, service.getHttpClientRecreationCount() - initialRecreations,
+					membershipChanges.get(), pauses.get());
+		}finally{
+			disruptor.shutdownNow();
+			workers.shutdownNow();
+			if(service!=null){
+				service.getHttpClient().close();
+				service.dispose();
+			}
+			for(StubBackend backend:backends){
+				backend.stop();
+			}
+			client.close();
+			zkServer.close();
+		}
+	}
+
+	/* Removes a random backend from the service path, or brings back one that was removed. At least one host stays registered. */
+	private void churn(CuratorFramework client, List<StubBackend> backends, boolean[] registered, Random random){
+		int index=random.nextInt(backends.size());
+		int registeredCount=0;
+		for(boolean value:registered){
+			if(value){
+				registeredCount++;
+			}
+		}
+		StubBackend backend=backends.get(index);
+		try{
+			if(registered[index] && registeredCount>1){
+				client.delete().forPath(servicePath + "/" + backend.getName());
+				registered[index]=false;
+			}else if(!registered[index]){
+				register(client, backend);
+				registered[index]=true;
+			}
+		}catch(Exception e){
+			_logger.warn("Failed to change membership of {}: {}", backend.getName(), e.getMessage());
+		}
+	}
+
+	private void register(CuratorFramework client, StubBackend backend) throws Exception{
+		client.create().creatingParentContainersIfNeeded().forPath(servicePath + "/" + backend.getName(),
+				new ObjectMapper().writeValueAsBytes(backend.toNerveHost()));
+	}
+
+	private void awaitHosts(ResourceDiscoveryService service, int expected) throws InterruptedException{
+		long deadline=System.currentTimeMillis() + 10000;
+		while(service.getAllHosts().size()<expected && System.currentTimeMillis()<deadline){
+			Thread.sleep(50);
+		}
+	}
+
+	private class Worker implements Callable<Worker> {
+		private final ResourceDiscoveryService service;
+		private final long deadline;
+		private final Random random;
+		long[] latencies=new long[1024];
+		int count;
+		long successCount, httpErrorCount, failureCount;
+		long[] shedCount=new long[RequestPriority.values().length];
+
+		Worker(ResourceDiscoveryService service, long deadline, long seed){
+			this.service=service;
+			this.deadline=deadline;
+			this.random=new Random(seed);
+		}
+
+		private RequestPriority nextPriority(){
+			double value=random.nextDouble();
+			if(value<criticalFraction){
+				return RequestPriority.CRITICAL;
+			}
+			return value<criticalFraction + batchFraction?RequestPriority.BATCH:RequestPriority.NORMAL;
+		}
+
+		public Worker call() {
+			while(System.currentTimeMillis()<deadline){
+				RequestPriority priority=nextPriority();
+				long begin=System.nanoTime();
+				try{
+					HttpResponse response=service.executeHttpRequest(HttpMethod.GET, requestPath, null, priority);
+					int status=response.getStatusLine().getStatusCode();
+					EntityUtils.consume(response.getEntity());
+					if(status>=200 && status<300){
+						successCount++;
+					}else{
+						httpErrorCount++;
+					}
+				}catch(OverloadException e){
+					shedCount[priority.ordinal()]++;
+					//A caller would drop the request, back off briefly instead of spinning on rejections
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+					continue;
+				}catch(Exception e){
+					failureCount++;
+				}
+				record((System.nanoTime() - begin) / 1000);
+			}
+			return this;
+		}
+
+		private void record(long micros){
+			if(count==latencies.length){
+				latencies=Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++]=micros;
+		}
+	}
+
+	/*
+	 * Accepts key=value arguments: backends, threads, connections, duration, latency, errorRate, churnInterval,
+	 * pauseInterval, pause, seed, admission (true enables admission control), criticalFraction and batchFraction
+	 * (share of requests sent with that priority, the rest are NORMAL). latency and errorRate take comma separated lists that are assigned to the
+	 * backends in turn, e.g. latency=lognormal:5:0.5,constant:50 gives every other backend a fixed 50 ms.
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadSimulation simulation=new LoadSimulation();
+		List<String> arguments=new ArrayList<String>(Arrays.asList(args));
+		String property=System.getProperty("simulation.args");
+		if(property!=null && property.trim().length()>0){
+			arguments.addAll(Arrays.asList(property.trim().split("\\s+")));
+		}
+		for(String argument:arguments){
+			String[] pair=argument.split("=", 2);
+			if(pair.length!=2){
+				throw new IllegalArgumentException("Expected key=value but got " + argument);
+			}
+			simulation.configure(pair[0], pair[1]);
+		}
+		System.out.println(simulation.run());
+		System.exit(0);
+	}
+
+	private void configure(String key, String value){
+		switch (key) {
+		case "backends":
+			backendCount=Integer.parseInt(value);
+			break;
+		case "threads":
+			clientThreads=Integer.parseInt(value);
+			break;
+		case "connections":
+			connectionCount=Integer.parseInt(value);
+			break;
+		case "duration":
+			durationMillis=Long.parseLong(value);
+			break;
+		case "latency":
+			List<LatencyDistribution> parsedLatencies=new ArrayList<LatencyDistribution>();
+			for(String spec:value.split(",")){
+				parsedLatencies.add(LatencyDistribution.parse(spec));
+			}
+			latencies=parsedLatencies;
+			break;
+		case "errorRate":
+			List<Double> parsedRates=new ArrayList<Double>();
+			for(String rate:value.split(",")){
+				parsedRates.add(Double.parseDouble(rate));
+			}
+			errorRates=parsedRates;
+			break;
+		case "churnInterval":
+			churnIntervalMillis=Long.parseLong(value);
+			break;
+		case "pauseInterval":
+			pauseIntervalMillis=Long.parseLong(value);
+			break;
+		case "pause":
+			pauseMillis=Long.parseLong(value);
+			break;
+		case "seed":
+			seed=Long.parseLong(value);
+			break;
+		case "admission":
+			admissionControl=Boolean.parseBoolean(value);
+			break;
+		case "criticalFraction":
+			criticalFraction=Double.parseDouble(value);
+			break;
+		case "batchFraction":
+			batchFraction=Double.parseDouble(value);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown simulation argument: " + key);
+		}
+	}
+
+	public void setBackendCount(int backendCount) {
+		this.backendCount = backendCount;
+	}
+	public void setClientThreads(int clientThreads) {
+		this.clientThreads = clientThreads;
+	}
+	public void setConnectionCount(int connectionCount) {
+		this.connectionCount = connectionCount;
+	}
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+	public void setLatencies(LatencyDistribution... latencies) {
+		this.latencies = Arrays.asList(latencies);
+	}
+	public void setErrorRates(Double... errorRates) {
+		this.errorRates = Arrays.asList(errorRates);
+	}
+	public void setChurnIntervalMillis(long churnIntervalMillis) {
+		this.churnIntervalMillis = churnIntervalMillis;
+	}
+	public void setPauseIntervalMillis(long pauseIntervalMillis) {
+		this.pauseIntervalMillis = pauseIntervalMillis;
+	}
+	public void setPauseMillis(long pauseMillis) {
+		this.pauseMillis = pauseMillis;
+	}
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	public void setAdmissionControl(boolean admissionControl) {
+		this.admissionControl = admissionControl;
+	}
+	public void setCriticalFraction(double criticalFraction) {
+		this.criticalFraction = criticalFraction;
+	}
+	public void setBatchFraction(double batchFraction) {
+		this.batchFraction = batchFraction;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.simulation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.salesforce.nerde.service.RequestPriority;
+
+/**
+ * Outcome of a single {@link LoadSimulation} run. Latencies are measured around
+ * {@code ResourceDiscoveryService.executeHttpRequest} and kept in microseconds.
+ */
+public class SimulationReport {
+	private final long elapsedMillis;
+	private final long[] latencies;
+	private final long successCount;
+	private final long httpErrorCount;
+	private final long failureCount;
+	private final Map<RequestPriority, Long> shedPerPriority;
+	private final Map<String, Long> requestsPerHost;
+	private final long connectionsOpened;
+	private final long poolRecreations;
+	private final long membershipChanges;
+	private final long pauses;
+
+	SimulationReport(long elapsedMillis, long[] latencies, long successCount, long httpErrorCount, long failureCount,
+			Map<RequestPriority, Long> shedPerPriority, Map<String, Long> requestsPerHost, long connectionsOpened, long poolRecreations, long membershipChanges, long pauses){
+		this.elapsedMillis=elapsedMillis;
+		this.latencies=latencies;
+		Arrays.sort(this.latencies);
+		this.successCount=successCount;
+		this.httpErrorCount=httpErrorCount;
+		this.failureCount=failureCount;
+		this.shedPerPriority=new LinkedHashMap<RequestPriority, Long>(shedPerPriority);
+		this.requestsPerHost=new LinkedHashMap<String, Long>(requestsPerHost);
+		this.connectionsOpened=connectionsOpened;
+		this.poolRecreations=poolRecreations;
+		this.membershipChanges=membershipChanges;
+		this.pauses=pauses;
+	}
+
+	public long getRequestCount(){
+		return successCount + httpErrorCount + failureCount;
+	}
+	public long getSuccessCount() {
+		return successCount;
+	}
+	/* Requests that reached a backend and got a non-2xx answer. */
+	public long getHttpErrorCount() {
+		return httpErrorCount;
+	}
+	/* Requests that failed on the client side, e.g. connect errors or a pool closed by a membership change. */
+	public long getFailureCount() {
+		return failureCount;
+	}
+	/* Requests rejected by admission control, which are not part of the request count or the latencies. */
+	public long getShedCount(RequestPriority priority){
+		Long count=shedPerPriority.get(priority);
+		return count!=null?count:0;
+	}
+	public double getThroughput(){
+		return elapsedMillis>0?getRequestCount() * 1000.0 / elapsedMillis:0;
+	}
+
+	/* Latency in microseconds at the given percentile, 0 < percentile <= 100. */
+	public long getLatencyPercentile(double percentile){
+		if(latencies.length==0){
+			return 0;
+		}
+		int index=(int)Math.ceil(percentile / 100.0 * latencies.length) - 1;
+		return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+	}
+
+	public Map<String, Long> getRequestsPerHost() {
+		return requestsPerHost;
+	}
+
+	/* Ratio between the busiest host and the mean host load; 1.0 means perfectly even. */
+	public double getLoadSkew(){
+		if(requestsPerHost.isEmpty()){
+			return 0;
+		}
+		long max=0, total=0;
+		for(long count:requestsPerHost.values()){
+			max=Math.max(max, count);
+			total+=count;
+		}
+		return total>0?max * (double)requestsPerHost.size() / total:0;
+	}
+
+	/* TCP connections the client connection pools opened across all backends. */
+	public long getConnectionsOpened() {
+		return connectionsOpened;
+	}
+	/* Number of times the discovery service replaced its HTTP client and connection pool. */
+	public long getPoolRecreations() {
+		return poolRecreations;
+	}
+	public long getMembershipChanges() {
+		return membershipChanges;
+	}
+	public long getPauses() {
+		return pauses;
+	}
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result=new StringBuilder();
+		result.append(String.format("requests=%d ok=%d httpErrors=%d failures=%d elapsed=%dms throughput=%.1f req/s%n",
+				getRequestCount(), successCount, httpErrorCount, failureCount, elapsedMillis, getThroughput()));
+		result.append(String.format("latency(ms) p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+				getLatencyPercentile(50) / 1000.0, getLatencyPercentile(90) / 1000.0, getLatencyPercentile(99) / 1000.0,
+				getLatencyPercentile(99.9) / 1000.0, getLatencyPercentile(100) / 1000.0));
+		result.append(String.format("skew(max/mean)=%.2f connectionsOpened=%d poolRecreations=%d membershipChanges=%d pauses=%d%n",
+				getLoadSkew(), connectionsOpened, poolRecreations, membershipChanges, pauses));
+		result.append("shed");
+		for(Map.Entry<RequestPriority, Long> entry:shedPerPriority.entrySet()){
+			result.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		result.append(String.format("%n"));
+		for(Map.Entry<String, Long> entry:requestsPerHost.entrySet()){
+			result.append(String.format("  %-12s %d%n", entry.getKey(), entry.getValue()));
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.nerde.simulation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.salesforce.nerde.service.NerveHost;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP backend used by {@link LoadSimulation}. Every request is answered after a delay drawn from a
+ * {@link LatencyDistribution}, a configurable fraction of requests fail with a 500 and the backend can be paused
+ * to mimic a stop-the-world collection.
+ */
+public class StubBackend {
+	private static final byte[] OK_BODY="{\"status\":\"ok\"}".getBytes();
+	private static final byte[] ERROR_BODY="{\"status\":\"error\"}".getBytes();
+	static {
+		//Headers and body go out in separate writes; without TCP_NODELAY, delayed acks add ~40 ms to every response
+		if(System.getProperty("sun.net.httpserver.nodelay")==null){
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final String name;
+	private final LatencyDistribution latency;
+	private final double errorRate;
+	private final long seed;
+	private final HttpServer server;
+	private final ExecutorService workers;
+	private final AtomicLong requestCount=new AtomicLong();
+	private final AtomicLong errorCount=new AtomicLong();
+	private volatile long pausedUntil;
+
+	public StubBackend(String name, LatencyDistribution latency, double errorRate, long seed, int workerThreads) throws IOException{
+		this.name=name;
+		this.latency=latency;
+		this.errorRate=errorRate;
+		this.seed=seed;
+		this.workers=Executors.newFixedThreadPool(workerThreads);
+		server=HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(workers);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+	}
+
+	public void start(){
+		server.start();
+	}
+
+	public void stop(){
+		server.stop(0);
+		workers.shutdownNow();
+	}
+
+	/* Holds every request, including those already being served, until the pause is over. */
+	public void pause(long millis){
+		pausedUntil=Math.max(pausedUntil, System.currentTimeMillis() + millis);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException{
+		//The n-th request gets the same latency and outcome whichever worker thread serves it
+		Random random=new Random(seed + requestCount.incrementAndGet() * 0x9E3779B97F4A7C15L);
+		try{
+			sleep(latency.nextMillis(random));
+			long pause=pausedUntil - System.currentTimeMillis();
+			if(pause>0){
+				sleep(pause);
+			}
+			boolean fail=errorRate>0 && random.nextDouble()<errorRate;
+			if(fail){
+				errorCount.incrementAndGet();
+			}
+			byte[] body=fail?ERROR_BODY:OK_BODY;
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(fail?500:200, body.length);
+			OutputStream out=exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}finally{
+			exchange.close();
+		}
+	}
+
+	private void sleep(long millis){
+		if(millis<=0){
+			return;
+		}
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public NerveHost toNerveHost(){
+		return new NerveHost("127.0.0.1", getPort(), name);
+	}
+
+	public String getName() {
+		return name;
+	}
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	public LatencyDistribution getLatency() {
+		return latency;
+	}
+	public double getErrorRate() {
+		return errorRate;
+	}
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+}